@@ -19,9 +19,8 @@ package com.google.jenkins.plugins.computeengine;
 import static com.google.jenkins.plugins.computeengine.ComputeEngineCloud.checkPermissions;
 
 import com.google.api.services.compute.model.AcceleratorType;
-import com.google.cloud.graphite.platforms.plugin.client.ClientFactory;
 import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
-import com.google.jenkins.plugins.computeengine.client.ClientUtil;
+import com.google.jenkins.plugins.computeengine.client.ComputeClientPool;
 import hudson.Extension;
 import hudson.RelativePath;
 import hudson.model.Describable;
@@ -68,14 +67,14 @@ public class AcceleratorConfiguration implements Describable<AcceleratorConfigur
 
         public static void setComputeClient(ComputeClient client) {
             computeClient = client;
+            LookupCache.get().invalidateAll();
         }
 
-        private static ComputeClient computeClient(Jenkins context, String credentialsId) throws IOException {
+        private static ComputeClient computeClient(String credentialsId) throws IOException {
             if (computeClient != null) {
                 return computeClient;
             }
-            ClientFactory clientFactory = ClientUtil.getClientFactory(context, credentialsId);
-            return clientFactory.computeClient();
+            return ComputeClientPool.getClient(credentialsId);
         }
 
         public ListBoxModel doFillGpuTypeItems(
@@ -86,8 +85,10 @@ public class AcceleratorConfiguration implements Describable<AcceleratorConfigur
             checkPermissions(Jenkins.get(), Jenkins.ADMINISTER);
             ListBoxModel items = new ListBoxModel();
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<AcceleratorType> acceleratorTypes = compute.listAcceleratorTypes(projectId, zone);
+                List<AcceleratorType> acceleratorTypes = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "acceleratorTypes", projectId, zone),
+                                () -> computeClient(credentialsId).listAcceleratorTypes(projectId, zone));
 
                 for (AcceleratorType a : acceleratorTypes) {
                     items.add(a.getName(), a.getSelfLink());
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the startup script snippets that are added to the user provided startup script. The
+ * snippets only read per-instance values (such as the agent secret) from the metadata server, so
+ * the generated text is the same for every instance of a configuration.
+ */
+final class AgentStartupScripts {
+    static final String METADATA_JENKINS_URL_KEY = "jenkins-url";
+    static final String METADATA_AGENT_SECRET_KEY = "jenkins-agent-secret";
+
+    static final String PREFETCHED_AGENT_JAR_LINUX = "/var/cache/jenkins-agent/agent.jar";
+    static final String PREFETCHED_AGENT_JAR_WINDOWS = "C:\\ProgramData\\jenkins-agent\\agent.jar";
+
+    private static final String METADATA_SERVER_URL = "http://metadata.google.internal/computeMetadata/v1/instance/";
+    private static final Set<String> SHELLS = ImmutableSet.of("sh", "bash");
+
+    private AgentStartupScripts() {}
+
+    /**
+     * Appends a snippet to a user provided startup script.
+     *
+     * @param userScript The startup script configured by the user, may be null or empty.
+     * @param snippet The snippet to append.
+     * @param windows Whether the script is a Windows PowerShell script.
+     * @return The combined script.
+     */
+    static String append(String userScript, String snippet, boolean windows) {
+        if (Strings.isNullOrEmpty(userScript)) {
+            return windows ? snippet : "#!/bin/bash\n" + snippet;
+        }
+        return userScript + "\n\n" + snippet;
+    }
+
+    /**
+     * Inserts a snippet ahead of a user provided startup script, keeping an interpreter line of the
+     * user script first. Scripts run by another interpreter than sh or bash are left unchanged, see
+     * {@link #canPrepend}.
+     *
+     * @param userScript The startup script configured by the user, may be null or empty.
+     * @param snippet The snippet to insert.
+     * @param windows Whether the script is a Windows PowerShell script.
+     * @return The combined script.
+     */
+    static String prepend(String userScript, String snippet, boolean windows) {
+        if (Strings.isNullOrEmpty(userScript)) {
+            return append(userScript, snippet, windows);
+        }
+        if (!canPrepend(userScript, windows)) {
+            return userScript;
+        }
+        if (!windows && userScript.startsWith("#!")) {
+            int lineEnd = userScript.indexOf('\n');
+            if (lineEnd < 0) {
+                return userScript + "\n" + snippet;
+            }
+            return userScript.substring(0, lineEnd + 1) + snippet + "\n" + userScript.substring(lineEnd + 1);
+        }
+        return snippet + "\n" + userScript;
+    }
+
+    /**
+     * Whether a shell snippet can be inserted ahead of a user provided startup script: the script is
+     * a Windows PowerShell script, has no interpreter line, or is run by sh or bash, possibly through
+     * {@code env}.
+     *
+     * @param userScript The startup script configured by the user, may be null or empty.
+     * @param windows Whether the script is a Windows PowerShell script.
+     * @return Whether {@link #prepend} inserts snippets into the script.
+     */
+    static boolean canPrepend(String userScript, boolean windows) {
+        if (windows || Strings.isNullOrEmpty(userScript) || !userScript.startsWith("#!")) {
+            return true;
+        }
+        int lineEnd = userScript.indexOf('\n');
+        String[] words = (lineEnd < 0 ? userScript.substring(2) : userScript.substring(2, lineEnd))
+                .trim()
+                .split("\\s+");
+        String interpreter = words[0].endsWith("/env") && words.length > 1 ? words[1] : words[0];
+        return SHELLS.contains(interpreter.substring(interpreter.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Startup script snippet that downloads agent.jar from the controller in the background to
+     * {@link #PREFETCHED_AGENT_JAR_LINUX}. The file is moved into place only once complete, so its
+     * presence means the download finished.
+     */
+    static String agentJarPrefetchLinux() {
+        return String.join(
+                "\n",
+                "# Prefetch agent.jar, added by the Google Compute Engine plugin",
+                "(",
+                "  JENKINS_URL=\"$(curl -sSf -H 'Metadata-Flavor: Google' \\",
+                "    '" + METADATA_SERVER_URL + "attributes/" + METADATA_JENKINS_URL_KEY + "')\" || exit 0",
+                "  AGENT_JAR=" + shellQuote(PREFETCHED_AGENT_JAR_LINUX),
+                "  mkdir -p \"$(dirname \"$AGENT_JAR\")\" && chmod 755 \"$(dirname \"$AGENT_JAR\")\"",
+                "  TMP_JAR=\"$(mktemp \"$AGENT_JAR.XXXXXX\")\" || exit 0",
+                "  if curl -sSf --retry 10 --retry-connrefused -o \"$TMP_JAR\" \\",
+                "    \"${JENKINS_URL%/}/jnlpJars/agent.jar\"; then",
+                "    chmod 644 \"$TMP_JAR\" && mv -f \"$TMP_JAR\" \"$AGENT_JAR\"",
+                "  else",
+                "    rm -f \"$TMP_JAR\"",
+                "  fi",
+                ") &",
+                "");
+    }
+
+    /**
+     * Windows PowerShell equivalent of {@link #agentJarPrefetchLinux}. The download runs before the
+     * user script as PowerShell startup scripts do not keep background jobs alive.
+     */
+    static String agentJarPrefetchWindows() {
+        return String.join(
+                "\n",
+                "# Prefetch agent.jar, added by the Google Compute Engine plugin",
+                "try {",
+                "  $uri = '" + METADATA_SERVER_URL + "attributes/" + METADATA_JENKINS_URL_KEY + "'",
+                "  $jenkinsUrl = Invoke-RestMethod -UseBasicParsing -Headers @{'Metadata-Flavor'='Google'} -Uri $uri",
+                "  $agentJar = " + powershellQuote(PREFETCHED_AGENT_JAR_WINDOWS),
+                "  New-Item -ItemType Directory -Force -Path (Split-Path $agentJar) | Out-Null",
+                "  $tmpJar = $agentJar + '.tmp'",
+                "  $agentJarUrl = $jenkinsUrl.TrimEnd('/') + '/jnlpJars/agent.jar'",
+                "  Invoke-WebRequest -UseBasicParsing -Uri $agentJarUrl -OutFile $tmpJar",
+                "  Move-Item -Force $tmpJar $agentJar",
+                "} catch {",
+                "  Write-Output \"agent.jar prefetch failed: $_\"",
+                "}",
+                "");
+    }
+
+    /**
+     * Startup script snippet that downloads agent.jar from the controller and starts an inbound
+     * agent as {@code user}.
+     */
+    static String inboundLinux(InboundAgentConfiguration config, String user, String workDir, String javaExecPath) {
+        return String.join(
+                "\n",
+                "# Jenkins inbound agent, added by the Google Compute Engine plugin",
+                "gce_attr() {",
+                "  curl -sSf -H 'Metadata-Flavor: Google' '" + METADATA_SERVER_URL + "'\"$1\"",
+                "}",
+                "JENKINS_URL=\"$(gce_attr attributes/" + METADATA_JENKINS_URL_KEY + ")\"",
+                "AGENT_NAME=\"$(gce_attr name)\"",
+                "AGENT_USER=" + shellQuote(user),
+                "WORK_DIR=" + shellQuote(workDir),
+                "id -u \"$AGENT_USER\" >/dev/null 2>&1 || useradd -m \"$AGENT_USER\"",
+                "if [ ! -d \"$WORK_DIR\" ]; then",
+                "  mkdir -p \"$WORK_DIR\" && chown \"$AGENT_USER\" \"$WORK_DIR\"",
+                "fi",
+                "AGENT_HOME=\"$(mktemp -d)\"",
+                "(umask 077 && gce_attr attributes/" + METADATA_AGENT_SECRET_KEY + " > \"$AGENT_HOME/secret\")",
+                "curl -sSf --retry 10 --retry-connrefused -o \"$AGENT_HOME/agent.jar\" \\",
+                "  \"${JENKINS_URL%/}/jnlpJars/agent.jar\"",
+                "chown -R \"$AGENT_USER\" \"$AGENT_HOME\"",
+                "nohup runuser -u \"$AGENT_USER\" -- " + shellQuote(javaExecPath) + " \\",
+                "  -jar \"$AGENT_HOME/agent.jar\" \\",
+                "  -url \"$JENKINS_URL\" -name \"$AGENT_NAME\" -secret \"@$AGENT_HOME/secret\" \\",
+                "  -workDir \"$WORK_DIR\"" + agentOptions(config, false) + " >/var/log/jenkins-agent.log 2>&1 &",
+                "");
+    }
+
+    /**
+     * Windows PowerShell equivalent of {@link #inboundLinux}, the agent runs as the system account.
+     * The secret is passed in a file only readable by the system account and administrators, so it
+     * does not show up in the process command line.
+     */
+    static String inboundWindows(InboundAgentConfiguration config, String workDir, String javaExecPath) {
+        return String.join(
+                "\n",
+                "# Jenkins inbound agent, added by the Google Compute Engine plugin",
+                "function Get-GceMetadata($path) {",
+                "  $uri = '" + METADATA_SERVER_URL + "' + $path",
+                "  Invoke-RestMethod -UseBasicParsing -Headers @{'Metadata-Flavor'='Google'} -Uri $uri",
+                "}",
+                "$jenkinsUrl = (Get-GceMetadata 'attributes/" + METADATA_JENKINS_URL_KEY + "').TrimEnd('/') + '/'",
+                "$agentName = Get-GceMetadata 'name'",
+                "$agentHome = Join-Path $env:ProgramData ('jenkins-agent-' + [guid]::NewGuid())",
+                "New-Item -ItemType Directory -Force -Path $agentHome | Out-Null",
+                "icacls $agentHome /inheritance:r /grant:r '*S-1-5-18:(OI)(CI)F' '*S-1-5-32-544:(OI)(CI)F' | Out-Null",
+                "$secretFile = Join-Path $agentHome 'secret'",
+                "Get-GceMetadata 'attributes/" + METADATA_AGENT_SECRET_KEY + "' |",
+                "  Set-Content -NoNewline -Encoding ascii -Path $secretFile",
+                "$workDir = " + powershellQuote(workDir),
+                "New-Item -ItemType Directory -Force -Path $workDir | Out-Null",
+                "$agentJar = Join-Path $workDir 'agent.jar'",
+                "Invoke-WebRequest -UseBasicParsing -Uri ($jenkinsUrl + 'jnlpJars/agent.jar') -OutFile $agentJar",
+                "$agentArgs = @('-jar', $agentJar, '-url', $jenkinsUrl, '-name', $agentName)",
+                "$agentArgs += @('-secret', ('@' + $secretFile), '-workDir', $workDir"
+                        + agentOptions(config, true)
+                        + ")",
+                "Start-Process -NoNewWindow -FilePath " + powershellQuote(javaExecPath) + " -ArgumentList $agentArgs",
+                "");
+    }
+
+    private static String agentOptions(InboundAgentConfiguration config, boolean windows) {
+        List<String> options = new ArrayList<>();
+        if (config.isWebSocket()) {
+            options.add("-webSocket");
+        } else if (!Strings.isNullOrEmpty(config.getTunnel())) {
+            options.add("-tunnel");
+            options.add(config.getTunnel());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String option : options) {
+            sb.append(windows ? ", " : " ").append(windows ? powershellQuote(option) : shellQuote(option));
+        }
+        return sb.toString();
+    }
+
+    static String shellQuote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    static String powershellQuote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+}
@@ -18,7 +18,6 @@ import static com.google.jenkins.plugins.computeengine.ComputeEngineCloud.checkP
 
 import com.google.api.services.compute.model.Network;
 import com.google.api.services.compute.model.Subnetwork;
-import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
 import com.google.common.base.Strings;
 import hudson.Extension;
 import hudson.RelativePath;
@@ -61,8 +60,10 @@ public class AutofilledNetworkConfiguration extends NetworkConfiguration {
             items.add("");
 
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<Network> networks = compute.listNetworks(projectId);
+                List<Network> networks = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "networks", projectId),
+                                () -> computeClient(credentialsId).listNetworks(projectId));
 
                 for (Network n : networks) {
                     items.add(n.getName(), n.getSelfLink());
@@ -98,8 +99,11 @@ public class AutofilledNetworkConfiguration extends NetworkConfiguration {
             }
 
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<Subnetwork> subnetworks = compute.listSubnetworks(projectId, network, region);
+                List<Subnetwork> subnetworks = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "subnetworks", projectId, network, region),
+                                () -> computeClient(credentialsId)
+                                        .listSubnetworks(projectId, network, region));
 
                 if (subnetworks.size() <= 1) {
                     items.add(new ListBoxModel.Option("", "", false));
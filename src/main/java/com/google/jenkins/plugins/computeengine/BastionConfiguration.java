@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static com.google.jenkins.plugins.computeengine.ComputeEngineCloud.checkPermissions;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
+import com.google.common.base.Strings;
+import hudson.Extension;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import hudson.security.ACL;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import java.io.Serializable;
+import java.util.ArrayList;
+import jenkins.model.Jenkins;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Class to contain information needed to reach agents through a bastion (jump) host. SSH
+ * connections to agents are tunneled through pooled connections to the bastion, see {@link
+ * BastionConnectionPool}.
+ */
+@Getter
+@Setter(onMethod = @__(@DataBoundSetter))
+@Builder(builderClassName = "Builder")
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode
+public class BastionConfiguration implements Describable<BastionConfiguration>, Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_PORT = 22;
+
+    private String host;
+    private int port;
+    private String username;
+    private String credentialsId;
+    // Optional expected host key of the bastion, in authorized_keys format, e.g. "ssh-ed25519 AAAA..."
+    private String hostKey;
+
+    @DataBoundConstructor
+    public BastionConfiguration() {}
+
+    /** @return The configured port, or else the default SSH port. */
+    public int getPortOrDefault() {
+        return port > 0 ? port : DEFAULT_PORT;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Descriptor<BastionConfiguration> getDescriptor() {
+        return Jenkins.get().getDescriptor(BastionConfiguration.class);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<BastionConfiguration> {
+
+        public ListBoxModel doFillCredentialsIdItems(
+                @AncestorInPath Jenkins context, @QueryParameter String credentialsId) {
+            checkPermissions(context, Jenkins.ADMINISTER);
+
+            return new StandardListBoxModel()
+                    .includeMatchingAs(
+                            ACL.SYSTEM,
+                            context,
+                            SSHUserPrivateKey.class,
+                            new ArrayList<>(),
+                            CredentialsMatchers.always())
+                    .includeCurrentValue(credentialsId);
+        }
+
+        public FormValidation doCheckHost(@QueryParameter String value) {
+            if (Strings.isNullOrEmpty(value)) {
+                return FormValidation.error("A bastion host is required");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckPort(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckCredentialsId(@QueryParameter String value) {
+            if (Strings.isNullOrEmpty(value)) {
+                return FormValidation.error("An SSH private key credential is required");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckHostKey(@QueryParameter String value) {
+            if (Strings.isNullOrEmpty(value)) {
+                return FormValidation.warning(
+                        "Without a host key, any bastion presenting its address is trusted with the agent connections");
+            }
+            if (value.trim().split("\\s+").length < 2) {
+                return FormValidation.error("Expected a host key such as \"ssh-ed25519 AAAA...\"");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
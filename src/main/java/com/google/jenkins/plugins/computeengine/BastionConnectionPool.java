@@ -0,0 +1,377 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHAuthenticator;
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.google.common.base.Strings;
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.ConnectionMonitor;
+import com.trilead.ssh2.LocalStreamForwarder;
+import com.trilead.ssh2.ProxyData;
+import com.trilead.ssh2.ServerHostKeyVerifier;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+
+/**
+ * Process wide pool of authenticated SSH connections to bastion hosts. Connections to agents are
+ * opened as direct-tcpip channels over a pooled bastion connection, so concurrent launches share a
+ * few bastion sessions instead of each doing a full handshake with the bastion. A new bastion
+ * connection is only opened once all existing ones carry {@link #MAX_CHANNELS_PER_CONNECTION}
+ * channels, up to {@link #MAX_CONNECTIONS} per bastion. Bastion connections without channels are
+ * closed after {@link #IDLE_TIMEOUT_MILLIS}. The host key of a bastion is only verified if one is
+ * configured, a warning is logged once for each bastion without one.
+ */
+final class BastionConnectionPool {
+    private static final Logger LOGGER = Logger.getLogger(BastionConnectionPool.class.getName());
+
+    static final int MAX_CONNECTIONS = Integer.getInteger(BastionConnectionPool.class.getName() + ".maxConnections", 4);
+    static final int MAX_CHANNELS_PER_CONNECTION =
+            Integer.getInteger(BastionConnectionPool.class.getName() + ".maxChannelsPerConnection", 64);
+    static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final BastionConnectionPool INSTANCE = new BastionConnectionPool(BastionConnectionPool::connect);
+    private static final Set<String> UNVERIFIED_BASTIONS = ConcurrentHashMap.newKeySet();
+
+    private final Connector connector;
+    // Guarded by this
+    private final Map<BastionConfiguration, List<PooledConnection>> pools = new HashMap<>();
+    private boolean reaperScheduled;
+
+    BastionConnectionPool(Connector connector) {
+        this.connector = connector;
+    }
+
+    /** Opens authenticated connections to bastions. */
+    interface Connector {
+        Connection connect(BastionConfiguration bastion, ServerHostKeyVerifier verifier, int connectTimeoutMillis)
+                throws IOException;
+    }
+
+    static BastionConnectionPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param bastion The bastion to tunnel through.
+     * @return Proxy data making a {@link Connection} tunnel through the bastion.
+     */
+    ProxyData proxyData(BastionConfiguration bastion) {
+        return (hostname, port, connectTimeout) -> openChannel(bastion, hostname, port, connectTimeout);
+    }
+
+    /**
+     * Opens a direct-tcpip channel to {@code host:port} over a pooled bastion connection.
+     *
+     * @return A socket whose streams are the channel, closing it releases the channel.
+     * @throws IOException if no bastion connection could be established or the channel was refused.
+     */
+    Socket openChannel(BastionConfiguration bastion, String host, int port, int connectTimeoutMillis)
+            throws IOException {
+        PooledConnection pooled = acquire(bastion, connectTimeoutMillis);
+        try {
+            LocalStreamForwarder forwarder = pooled.connection.createLocalStreamForwarder(host, port);
+            return new ForwardedSocket(forwarder, pooled);
+        } catch (IOException e) {
+            release(pooled);
+            throw e;
+        }
+    }
+
+    private PooledConnection acquire(BastionConfiguration bastion, int connectTimeoutMillis) throws IOException {
+        PooledConnection chosen = null;
+        boolean open = false;
+        synchronized (this) {
+            scheduleReaper();
+            List<PooledConnection> connections = pools.computeIfAbsent(bastion, k -> new ArrayList<>());
+            connections.removeIf(c -> !c.isUsable());
+            for (PooledConnection c : connections) {
+                if (c.channels < MAX_CHANNELS_PER_CONNECTION && (chosen == null || c.channels > chosen.channels)) {
+                    // Fill up the busiest connection first so idle ones can be closed.
+                    chosen = c;
+                }
+            }
+            if (chosen == null) {
+                if (connections.size() < MAX_CONNECTIONS) {
+                    chosen = new PooledConnection(bastion);
+                    connections.add(chosen);
+                    open = true;
+                } else {
+                    chosen = connections.stream()
+                            .min(Comparator.comparingInt(c -> c.channels))
+                            .get();
+                }
+            }
+            chosen.channels++;
+        }
+
+        try {
+            if (open) {
+                chosen.open(connector, connectTimeoutMillis);
+            }
+            chosen.await(connectTimeoutMillis);
+            return chosen;
+        } catch (IOException e) {
+            release(chosen);
+            throw e;
+        } catch (InterruptedException e) {
+            release(chosen);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to bastion " + bastion.getHost());
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        synchronized (this) {
+            pooled.channels--;
+            if (pooled.channels > 0) {
+                return;
+            }
+            pooled.idleSince = System.currentTimeMillis();
+            if (pooled.isUsable()) {
+                return;
+            }
+        }
+        pooled.close();
+    }
+
+    private void scheduleReaper() {
+        if (!reaperScheduled) {
+            reaperScheduled = true;
+            Timer.get()
+                    .scheduleWithFixedDelay(() -> closeIdle(System.currentTimeMillis()), 1, 1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Closes the bastion connections that have been without channels for longer than {@link
+     * #IDLE_TIMEOUT_MILLIS}. They are removed from the pool under its lock, but closed outside of
+     * it, as closing waits for the connection to shut down.
+     *
+     * @param now The current time in epoch millis.
+     */
+    void closeIdle(long now) {
+        List<PooledConnection> idle = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<List<PooledConnection>> pool = pools.values().iterator(); pool.hasNext(); ) {
+                List<PooledConnection> connections = pool.next();
+                connections.removeIf(c -> {
+                    if (c.channels <= 0 && now - c.idleSince > IDLE_TIMEOUT_MILLIS) {
+                        idle.add(c);
+                        return true;
+                    }
+                    return false;
+                });
+                if (connections.isEmpty()) {
+                    pool.remove();
+                }
+            }
+        }
+        for (PooledConnection c : idle) {
+            c.close();
+        }
+    }
+
+    /**
+     * @param bastion A bastion.
+     * @return The number of channels open over each pooled connection to the bastion.
+     */
+    synchronized List<Integer> channelsPerConnection(BastionConfiguration bastion) {
+        List<Integer> channels = new ArrayList<>();
+        for (PooledConnection c : pools.getOrDefault(bastion, new ArrayList<>())) {
+            channels.add(c.channels);
+        }
+        return channels;
+    }
+
+    private static Connection connect(
+            BastionConfiguration bastion, ServerHostKeyVerifier verifier, int connectTimeoutMillis)
+            throws IOException {
+        Connection conn = new Connection(bastion.getHost(), bastion.getPortOrDefault());
+        try {
+            conn.connect(verifier, connectTimeoutMillis, connectTimeoutMillis);
+            SSHUserPrivateKey credentials = SshConfiguration.getCustomPrivateKeyCredentials(bastion.getCredentialsId());
+            if (credentials == null) {
+                throw new IOException("Could not find bastion credentials " + bastion.getCredentialsId());
+            }
+            String username = Strings.isNullOrEmpty(bastion.getUsername())
+                    ? credentials.getUsername()
+                    : bastion.getUsername();
+            if (!SSHAuthenticator.newInstance(conn, credentials, username).authenticate(TaskListener.NULL)) {
+                throw new IOException("Authentication to bastion " + bastion.getHost() + " failed");
+            }
+            return conn;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            conn.close();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while authenticating to bastion " + bastion.getHost());
+            }
+            throw e instanceof IOException
+                    ? (IOException) e
+                    : new IOException("Failed to connect to bastion " + bastion.getHost(), e);
+        }
+    }
+
+    /** An SSH connection to a bastion and the number of channels currently open over it. */
+    private static final class PooledConnection implements ConnectionMonitor {
+        private final BastionConfiguration bastion;
+        private final CountDownLatch ready = new CountDownLatch(1);
+        private volatile Connection connection;
+        private volatile IOException failure;
+        private volatile boolean lost;
+        // Guarded by the pool
+        private int channels;
+        private long idleSince = System.currentTimeMillis();
+
+        private PooledConnection(BastionConfiguration bastion) {
+            this.bastion = bastion;
+        }
+
+        boolean isUsable() {
+            return !lost && failure == null;
+        }
+
+        void open(Connector connector, int connectTimeoutMillis) throws IOException {
+            try {
+                Connection conn = connector.connect(
+                        bastion,
+                        (hostname, port, serverHostKeyAlgorithm, serverHostKey) ->
+                                verifyHostKey(serverHostKeyAlgorithm, serverHostKey),
+                        connectTimeoutMillis);
+                conn.addConnectionMonitor(this);
+                LOGGER.log(Level.FINE, "Opened connection to bastion {0}", bastion.getHost());
+                connection = conn;
+            } catch (IOException | RuntimeException e) {
+                failure = e instanceof IOException
+                        ? (IOException) e
+                        : new IOException("Failed to connect to bastion " + bastion.getHost(), e);
+                throw e;
+            } finally {
+                ready.countDown();
+            }
+        }
+
+        void await(int timeoutMillis) throws IOException, InterruptedException {
+            if (!ready.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for connection to bastion " + bastion.getHost());
+            }
+            IOException e = failure;
+            if (e != null) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        private boolean verifyHostKey(String serverHostKeyAlgorithm, byte[] serverHostKey) {
+            if (Strings.isNullOrEmpty(bastion.getHostKey())) {
+                if (UNVERIFIED_BASTIONS.add(bastion.getHost() + ":" + bastion.getPortOrDefault())) {
+                    LOGGER.log(
+                            Level.WARNING,
+                            "No host key configured for bastion {0}, accepting any host key it presents",
+                            bastion.getHost());
+                }
+                return true;
+            }
+            String[] expected = bastion.getHostKey().trim().split("\\s+");
+            return expected.length >= 2
+                    && expected[0].equals(serverHostKeyAlgorithm)
+                    && expected[1].equals(Base64.getEncoder().encodeToString(serverHostKey));
+        }
+
+        void close() {
+            Connection conn = connection;
+            if (conn != null) {
+                conn.close();
+            }
+        }
+
+        @Override
+        public void connectionLost(Throwable reason) {
+            lost = true;
+            LOGGER.log(Level.WARNING, "Lost connection to bastion " + bastion.getHost(), reason);
+        }
+    }
+
+    /** Presents a direct-tcpip channel as a socket, for use as the transport of a {@link Connection}. */
+    private final class ForwardedSocket extends Socket {
+        private final LocalStreamForwarder forwarder;
+        private final PooledConnection pooled;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private ForwardedSocket(LocalStreamForwarder forwarder, PooledConnection pooled) {
+            this.forwarder = forwarder;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return forwarder.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return forwarder.getOutputStream();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        // Socket options do not apply to a channel.
+        @Override
+        public void setSoTimeout(int timeout) {}
+
+        @Override
+        public void setTcpNoDelay(boolean on) {}
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    forwarder.close();
+                } finally {
+                    release(pooled);
+                }
+            }
+        }
+    }
+}
@@ -16,66 +16,111 @@
 
 package com.google.jenkins.plugins.computeengine;
 
-import static com.google.jenkins.plugins.computeengine.ComputeEngineCloud.CLOUD_ID_LABEL_KEY;
+import static com.google.cloud.graphite.platforms.plugin.client.util.ClientUtil.nameFromSelfLink;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
 
 import com.google.api.services.compute.model.Instance;
-import com.google.common.collect.ImmutableMap;
 import hudson.Extension;
-import hudson.model.PeriodicWork;
-import hudson.model.Slave;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import jenkins.model.Jenkins;
 import org.jenkinsci.Symbol;
 
-/** Periodically checks if there are no lost nodes in GCP. If it finds any they are deleted. */
+/**
+ * Periodically checks if there are no lost nodes in GCP. If it finds any they are deleted. Clouds are
+ * checked in parallel on their {@link CloudExecutor} and lost instances are deleted in batches through
+ * the {@link TerminationQueue} of their cloud. Instances younger than {@link #MIN_INSTANCE_AGE_MINUTES}
+ * are never considered lost, so that instances inserted by a provisioning still in flight are left
+ * alone.
+ */
 @Extension
 @Symbol("cleanLostNodesWork")
-public class CleanLostNodesWork extends PeriodicWork {
+public class CleanLostNodesWork extends AsyncPeriodicWork {
     protected final Logger logger = Logger.getLogger(getClass().getName());
 
+    static final long RECURRENCE_PERIOD_MINUTES =
+            Integer.getInteger(CleanLostNodesWork.class.getName() + ".recurrencePeriodMinutes", 60);
+    static final long MIN_INSTANCE_AGE_MINUTES =
+            Integer.getInteger(CleanLostNodesWork.class.getName() + ".minInstanceAgeMinutes", 10);
+    static final String INSTANCE_FIELDS = ComputeEngineCloud.INSTANCE_SUMMARY_FIELDS + ",creationTimestamp";
+
+    public CleanLostNodesWork() {
+        super("Clean lost nodes");
+    }
+
     /** {@inheritDoc} */
     @Override
     public long getRecurrencePeriod() {
-        return HOUR;
+        return TimeUnit.MINUTES.toMillis(RECURRENCE_PERIOD_MINUTES);
     }
 
     /** {@inheritDoc} */
     @Override
-    protected void doRun() {
+    protected void execute(TaskListener listener) {
         logger.log(Level.FINEST, "Starting clean lost nodes worker");
-        getClouds().forEach(this::cleanCloud);
+        Map<String, Set<String>> localInstances = findLocalInstances();
+        long now = System.currentTimeMillis();
+        List<CompletableFuture<Void>> runs = new ArrayList<>();
+        for (ComputeEngineCloud cloud : getClouds()) {
+            Set<String> cloudInstances = localInstances.getOrDefault(cloud.getCloudName(), emptySet());
+            try {
+                runs.add(CompletableFuture.runAsync(() -> cleanCloud(cloud, cloudInstances, now), cloud.getExecutor()));
+            } catch (RejectedExecutionException ree) {
+                logger.log(Level.WARNING, "Executor of cloud " + cloud.getCloudName() + " is saturated, skipping it");
+            }
+        }
+        for (CompletableFuture<Void> run : runs) {
+            try {
+                run.join();
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Error cleaning lost nodes", ex);
+            }
+        }
     }
 
-    private void cleanCloud(ComputeEngineCloud cloud) {
+    private void cleanCloud(ComputeEngineCloud cloud, Set<String> localInstances, long now) {
         logger.log(Level.FINEST, "Cleaning cloud " + cloud.getCloudName());
         List<Instance> remoteInstances = findRemoteInstances(cloud);
-        Set<String> localInstances = findLocalInstances(cloud);
-        remoteInstances.stream()
-                .filter(remote -> isOrphaned(remote, localInstances))
-                .forEach(remote -> terminateInstance(remote, cloud));
+        long minCreationMillis = now - TimeUnit.MINUTES.toMillis(MIN_INSTANCE_AGE_MINUTES);
+        List<Instance> orphaned = remoteInstances.stream()
+                .filter(remote -> creationMillis(remote) <= minCreationMillis)
+                .filter(remote -> isOrphaned(remote, localInstances, cloud))
+                .collect(Collectors.toList());
+        if (!orphaned.isEmpty()) {
+            TerminationQueue terminations = cloud.getTerminationQueue();
+            orphaned.forEach(remote -> terminateInstance(remote, terminations));
+        }
     }
 
-    private boolean isOrphaned(Instance remote, Set<String> localInstances) {
+    private boolean isOrphaned(Instance remote, Set<String> localInstances, ComputeEngineCloud cloud) {
         String instanceName = remote.getName();
         logger.log(Level.FINEST, "Checking instance " + instanceName);
-        return !localInstances.contains(instanceName);
+        return !localInstances.contains(instanceName) && !cloud.isPendingRemoval(instanceName);
+    }
+
+    /** @return The creation time of the instance as epoch millis, or now if it is not known. */
+    private static long creationMillis(Instance remote) {
+        return ResourceCollectorWork.creationMillis(remote.getCreationTimestamp());
     }
 
-    private void terminateInstance(Instance remote, ComputeEngineCloud cloud) {
+    private void terminateInstance(Instance remote, TerminationQueue terminations) {
         String instanceName = remote.getName();
         logger.log(Level.INFO, "Remote instance " + instanceName + " not found locally, removing it");
-        try {
-            cloud.getClient().terminateInstanceAsync(cloud.getProjectId(), remote.getZone(), instanceName);
-        } catch (IOException ex) {
-            logger.log(Level.WARNING, "Error terminating remote instance " + instanceName, ex);
-        }
+        terminations.enqueue(nameFromSelfLink(remote.getZone()), instanceName);
     }
 
     private List<ComputeEngineCloud> getClouds() {
@@ -85,19 +130,26 @@ public class CleanLostNodesWork extends PeriodicWork {
                 .collect(Collectors.toList());
     }
 
-    private Set<String> findLocalInstances(ComputeEngineCloud cloud) {
-        return Jenkins.get().getNodes().stream()
+    /**
+     * Indexes the local instances of all clouds once per run by the cloud name they were created by,
+     * which does not need a cloud lookup per node.
+     *
+     * @return The names of the local instances by cloud name.
+     */
+    private Map<String, Set<String>> findLocalInstances() {
+        Map<String, Set<String>> index = new HashMap<>();
+        Jenkins.get().getNodes().stream()
                 .filter(node -> node instanceof ComputeEngineInstance)
                 .map(node -> (ComputeEngineInstance) node)
-                .filter(node -> node.getCloud().equals(cloud))
-                .map(Slave::getNodeName)
-                .collect(Collectors.toSet());
+                .filter(node -> node.getCloudName() != null)
+                .forEach(node -> index.computeIfAbsent(node.getCloudName(), name -> new HashSet<>())
+                        .add(node.getNodeName()));
+        return index;
     }
 
     private List<Instance> findRemoteInstances(ComputeEngineCloud cloud) {
-        Map<String, String> filterLabel = ImmutableMap.of(CLOUD_ID_LABEL_KEY, cloud.getInstanceId());
         try {
-            return cloud.getClient().listInstancesWithLabel(cloud.getProjectId(), filterLabel).stream()
+            return cloud.listCloudInstances(INSTANCE_FIELDS).stream()
                     .filter(instance -> shouldTerminateStatus(instance.getStatus()))
                     .collect(Collectors.toList());
         } catch (IOException ex) {
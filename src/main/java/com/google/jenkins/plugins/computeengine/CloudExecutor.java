@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bulkhead for the blocking work of a cloud, such as connecting to agents, so that a slow Compute
+ * Engine API or slow agents cannot starve the remoting thread pool of Jenkins, nor the other way
+ * around. Short tasks run on at most {@link #getMaxThreads()} threads with a queue of {@link
+ * #QUEUE_CAPACITY} tasks, further tasks are rejected. Watchers that block for the launch or the
+ * lifetime of an agent, such as waiting for a planned node, run on their own threads so they do not
+ * hold on to the bounded pool that the launch needs. When enabled and supported by the JVM, all
+ * threads are virtual threads.
+ */
+public final class CloudExecutor implements Executor {
+    private static final Logger LOGGER = Logger.getLogger(CloudExecutor.class.getName());
+
+    public static final int DEFAULT_MAX_THREADS = 16;
+    static final int QUEUE_CAPACITY = Integer.getInteger(CloudExecutor.class.getName() + ".queueCapacity", 1000);
+    static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final int maxThreads;
+    private final boolean virtualThreads;
+    private final ThreadPoolExecutor tasks;
+    private final ExecutorService watchers;
+    private final AtomicInteger watching = new AtomicInteger();
+    private final AtomicLong saturated = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param name Name of the cloud, used to name the threads.
+     * @param maxThreads Maximum number of tasks running at the same time.
+     * @param virtualThreads Whether to use virtual threads, if the JVM supports them.
+     */
+    CloudExecutor(String name, int maxThreads, boolean virtualThreads) {
+        this(name, maxThreads, QUEUE_CAPACITY, virtualThreads);
+    }
+
+    CloudExecutor(String name, int maxThreads, int queueCapacity, boolean virtualThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+        ThreadFactory taskThreads = null;
+        ThreadFactory watcherThreads = null;
+        if (virtualThreads) {
+            taskThreads = virtualThreadFactory(name + ".task-");
+            watcherThreads = virtualThreadFactory(name + ".watcher-");
+            if (taskThreads == null) {
+                LOGGER.log(Level.INFO, "Virtual threads are not supported by this JVM, using platform threads");
+            }
+        }
+        this.virtualThreads = taskThreads != null;
+        if (taskThreads == null) {
+            taskThreads = new NamingThreadFactory(new DaemonThreadFactory(), name + ".task");
+            watcherThreads = new NamingThreadFactory(new DaemonThreadFactory(), name + ".watcher");
+        }
+        this.tasks = new ThreadPoolExecutor(
+                this.maxThreads,
+                this.maxThreads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, queueCapacity)),
+                taskThreads,
+                (r, executor) -> {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("Too many tasks queued for " + name);
+                });
+        // Idle executors of replaced cloud configurations release their threads.
+        this.tasks.allowCoreThreadTimeOut(true);
+        this.watchers = Executors.newCachedThreadPool(watcherThreads);
+    }
+
+    /**
+     * Runs a task on the bounded pool.
+     *
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (tasks.getActiveCount() >= maxThreads) {
+            saturated.incrementAndGet();
+        }
+        tasks.execute(task);
+    }
+
+    /**
+     * Runs a task on the bounded pool.
+     *
+     * @return The result of the task.
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        if (tasks.getActiveCount() >= maxThreads) {
+            saturated.incrementAndGet();
+        }
+        return tasks.submit(task);
+    }
+
+    /**
+     * Runs a watcher that blocks until something happens to an agent, outside of the bounded pool.
+     *
+     * @return The result of the watcher.
+     */
+    public <T> CompletableFuture<T> watch(Supplier<T> watcher) {
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    watching.incrementAndGet();
+                    try {
+                        return watcher.get();
+                    } finally {
+                        watching.decrementAndGet();
+                    }
+                },
+                watchers);
+    }
+
+    /** Stops accepting tasks. Running tasks and watchers are not interrupted. */
+    void shutdown() {
+        tasks.shutdown();
+        watchers.shutdown();
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** @return The number of tasks waiting for a thread. */
+    public int getQueueDepth() {
+        return tasks.getQueue().size();
+    }
+
+    /** @return The number of tasks running. */
+    public int getActiveCount() {
+        return tasks.getActiveCount();
+    }
+
+    /** @return The share of the threads that are running a task, between 0 and 1. */
+    public double getSaturation() {
+        return (double) tasks.getActiveCount() / maxThreads;
+    }
+
+    /** @return The number of tasks that had to wait because all threads were busy. */
+    public long getSaturatedCount() {
+        return saturated.get();
+    }
+
+    /** @return The number of tasks rejected because the queue was full. */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /** @return The number of running watchers. */
+    public int getWatcherCount() {
+        return watching.get();
+    }
+
+    /**
+     * Creates a factory of named virtual threads through reflection, as they are only available on
+     * newer JVMs than the plugin is built for.
+     *
+     * @return The factory, or null if virtual threads are not supported.
+     */
+    static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
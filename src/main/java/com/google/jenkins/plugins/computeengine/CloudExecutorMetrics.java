@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.collect.ImmutableMap;
+import hudson.Extension;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import jenkins.metrics.api.MetricProvider;
+import jenkins.model.Jenkins;
+
+/**
+ * Publishes gauges of the {@link CloudExecutor executors} of all clouds to the Metrics plugin, when
+ * it is installed, e.g. {@code gce.executor.queue.depth}.
+ */
+@Extension(optional = true)
+public final class CloudExecutorMetrics extends MetricProvider {
+    static final String PREFIX = "gce.executor";
+
+    @Override
+    public MetricSet getMetricSet() {
+        return () -> ImmutableMap.<String, Metric>builder()
+                .put(name(PREFIX, "queue", "depth"), sum(CloudExecutor::getQueueDepth))
+                .put(name(PREFIX, "active"), sum(CloudExecutor::getActiveCount))
+                .put(name(PREFIX, "saturation"), (Gauge<Double>) () -> executors()
+                        .mapToDouble(CloudExecutor::getSaturation)
+                        .max()
+                        .orElse(0))
+                .put(name(PREFIX, "saturated"), sum(CloudExecutor::getSaturatedCount))
+                .put(name(PREFIX, "rejected"), sum(CloudExecutor::getRejectedCount))
+                .put(name(PREFIX, "watchers"), sum(CloudExecutor::getWatcherCount))
+                .build();
+    }
+
+    private static Gauge<Long> sum(ToLongFunction<CloudExecutor> statistic) {
+        return () -> executors().mapToLong(statistic).sum();
+    }
+
+    private static Stream<CloudExecutor> executors() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return Stream.empty();
+        }
+        return jenkins.clouds.getAll(ComputeEngineCloud.class).stream().map(ComputeEngineCloud::getExecutor);
+    }
+}
@@ -23,12 +23,18 @@ import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardCredentials;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import com.google.api.services.compute.model.Disk;
 import com.google.api.services.compute.model.Instance;
-import com.google.cloud.graphite.platforms.plugin.client.ClientFactory;
+import com.google.api.services.compute.model.Snapshot;
 import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
-import com.google.jenkins.plugins.computeengine.client.ClientUtil;
+import com.google.jenkins.plugins.computeengine.client.ApiCallStatistics;
+import com.google.jenkins.plugins.computeengine.client.ApiRateLimiter;
+import com.google.jenkins.plugins.computeengine.client.ApiRateLimiter.Priority;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import com.google.jenkins.plugins.computeengine.client.ComputeClientPool;
+import com.google.jenkins.plugins.computeengine.client.RetryBudget;
 import com.google.jenkins.plugins.credentials.oauth.GoogleOAuth2Credentials;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
@@ -54,7 +60,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -79,6 +89,9 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
     public static final String CLOUD_PREFIX = "gce-";
     public static final String CONFIG_LABEL_KEY = "jenkins_config_name";
     public static final String CLOUD_ID_LABEL_KEY = "jenkins_cloud_id";
+    public static final int DEFAULT_TEMPLATE_CACHE_TTL_SECONDS = 300;
+    // Fields of the instances of a cloud needed to count and clean them up.
+    public static final String INSTANCE_SUMMARY_FIELDS = "name,zone,status";
 
     private static final SimpleFormatter sf = new SimpleFormatter();
     private static int configsNext;
@@ -89,8 +102,16 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
     private String instanceId;
     private List<InstanceConfiguration> configurations;
 
-    private transient volatile ComputeClient client;
+    private transient volatile InstanceTemplateCache templateCache;
+    private transient volatile CloudExecutor executor;
     private boolean noDelayProvisioning;
+    // Null in configurations saved before the setting existed.
+    private Integer templateCacheTtlSeconds;
+    // Null for the default transport.
+    private HttpTransportConfiguration httpTransport;
+    // Null in configurations saved before the setting existed.
+    private Integer executorThreads;
+    private boolean virtualThreads;
 
     @DataBoundConstructor
     public ComputeEngineCloud(String cloudName, String projectId, String credentialsId, String instanceCapStr) {
@@ -150,7 +171,50 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
         this.noDelayProvisioning = noDelayProvisioning;
     }
 
+    /** @return Seconds an instance template is cached before being refreshed, 0 if not cached. */
+    public int getTemplateCacheTtlSeconds() {
+        return templateCacheTtlSeconds == null ? DEFAULT_TEMPLATE_CACHE_TTL_SECONDS : templateCacheTtlSeconds;
+    }
+
+    @DataBoundSetter
+    public void setTemplateCacheTtlSeconds(int templateCacheTtlSeconds) {
+        this.templateCacheTtlSeconds = Math.max(0, templateCacheTtlSeconds);
+        this.templateCache = null;
+    }
+
+    @DataBoundSetter
+    public void setHttpTransport(HttpTransportConfiguration httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    /** @return Maximum number of blocking tasks of this cloud running at the same time. */
+    public int getExecutorThreads() {
+        return executorThreads == null ? CloudExecutor.DEFAULT_MAX_THREADS : executorThreads;
+    }
+
+    @DataBoundSetter
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = Math.max(1, executorThreads);
+        resetExecutor();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @DataBoundSetter
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        resetExecutor();
+    }
+
     protected Object readResolve() {
+        // Configuration was (re)loaded or saved, templates may have been changed along with it.
+        InstanceTemplateCache cache = templateCache;
+        if (cache != null) {
+            cache.invalidateAll();
+            templateCache = null;
+        }
         if (configurations != null) {
             for (InstanceConfiguration configuration : configurations) {
                 configuration.setCloud(this);
@@ -182,10 +246,14 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
         }
     }
 
-    private ComputeClient createClient() {
+    /**
+     * Returns GCP client for that cloud, shared with other users of the same credentials.
+     *
+     * @return GCP client object.
+     */
+    public ComputeClient getClient() {
         try {
-            ClientFactory clientFactory = ClientUtil.getClientFactory(Jenkins.get(), credentialsId);
-            return clientFactory.computeClient();
+            return ComputeClientPool.getClient(credentialsId, httpTransport);
         } catch (IOException e) {
             log.log(Level.SEVERE, "Exception when creating GCE client", e);
             // TODO: https://github.com/jenkinsci/google-compute-engine-plugin/issues/62
@@ -194,19 +262,113 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
     }
 
     /**
-     * Returns GCP client for that cloud.
+     * Returns the batcher of the client of this cloud, which sends per-instance reads and deletes as
+     * batch requests.
      *
-     * @return GCP client object.
+     * @return Batcher, or null if the client could not be created.
      */
-    public ComputeClient getClient() {
-        if (client == null) {
+    public ComputeBatcher getBatcher() {
+        try {
+            return ComputeClientPool.getBatcher(credentialsId, httpTransport);
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Exception when creating GCE client", e);
+            return null;
+        }
+    }
+
+    /** @return Statistics of the Compute API calls to the project of this cloud, keyed by API method. */
+    public Map<String, ApiCallStatistics.MethodStatistics> getApiStatistics() {
+        return ApiCallStatistics.getStatistics(projectId);
+    }
+
+    /** @return The number of API requests to the project of this cloud waiting for the rate limiter. */
+    public int getApiQueueDepth() {
+        return ApiRateLimiter.forProject(projectId).getQueueDepth();
+    }
+
+    /** @return Retry statistics of the API requests to the project of this cloud, null if none were made. */
+    public RetryBudget.RetryStatistics getApiRetryStatistics() {
+        return RetryBudget.getRetryStatistics().get(projectId);
+    }
+
+    /** @return Statistics of the access token of this cloud, null if no client was created yet. */
+    public ComputeClientPool.TokenStatistics getTokenStatistics() {
+        return ComputeClientPool.getTokenStatistics().get(credentialsId);
+    }
+
+    /**
+     * Returns the instance template cache of this cloud.
+     *
+     * @return Instance template cache.
+     */
+    InstanceTemplateCache getTemplateCache() {
+        InstanceTemplateCache cache = templateCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = templateCache;
+                if (cache == null) {
+                    // Refreshes block on the API, resolve the executor per task as it is replaced on reconfiguration.
+                    cache = new InstanceTemplateCache(
+                            this::getClient, task -> getExecutor().execute(task), getTemplateCacheTtlSeconds());
+                    templateCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the executor for the blocking work of this cloud, such as waiting for planned nodes,
+     * connecting to agents and watching for preemption.
+     *
+     * @return Executor of this cloud.
+     */
+    public CloudExecutor getExecutor() {
+        CloudExecutor current = executor;
+        if (current == null) {
             synchronized (this) {
-                if (client == null) {
-                    client = createClient();
+                current = executor;
+                if (current == null) {
+                    current = new CloudExecutor(name, getExecutorThreads(), virtualThreads);
+                    executor = current;
                 }
             }
         }
-        return client;
+        return current;
+    }
+
+    /**
+     * Returns the queue that deletes the instances of terminated agents of this cloud.
+     *
+     * @return Termination queue of this cloud.
+     */
+    public TerminationQueue getTerminationQueue() {
+        return TerminationQueue.forCloud(this);
+    }
+
+    /**
+     * Returns the pipeline that snapshots the disks of failed one-shot agents of this cloud.
+     *
+     * @return Snapshot pipeline of this cloud.
+     */
+    public SnapshotPipeline getSnapshotPipeline() {
+        return SnapshotPipeline.forCloud(this);
+    }
+
+    /**
+     * @param instanceName The name of an instance of this cloud.
+     * @return Whether the instance belongs to a removed agent and is waiting for its snapshots or its
+     *     deletion.
+     */
+    public boolean isPendingRemoval(String instanceName) {
+        return getSnapshotPipeline().isPending(instanceName) || getTerminationQueue().isPending(instanceName);
+    }
+
+    private synchronized void resetExecutor() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
     }
 
     /**
@@ -295,30 +457,49 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
     }
 
     private Future<Node> getPlannedNodeFuture(InstanceConfiguration config, ComputeEngineInstance node) {
-        return Computer.threadPoolForRemoting.submit(() -> {
-            long startTime = System.currentTimeMillis();
-            log.log(
-                    Level.INFO,
-                    String.format(
-                            "Waiting %dms for node %s to connect",
-                            config.getLaunchTimeoutMillis(), node.getNodeName()));
-            try {
-                Computer c = node.toComputer();
-                if (c != null) {
-                    c.connect(false).get(config.getLaunchTimeoutMillis(), TimeUnit.MILLISECONDS);
-                    log.log(
-                            Level.INFO,
-                            String.format(
-                                    "%dms elapsed waiting for node %s to connect",
-                                    System.currentTimeMillis() - startTime, node.getNodeName()));
-                } else {
-                    log.log(Level.WARNING, String.format("No computer for node %s found", node.getNodeName()));
+        try {
+            // Waiting blocks for up to the launch timeout, so it must not hold a thread of the bounded
+            // pool that the launch itself needs to connect to the agent.
+            return getExecutor().watch(() -> {
+                try {
+                    return waitForConnection(config, node);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(e);
+                } catch (ExecutionException e) {
+                    throw new CompletionException(e.getCause());
                 }
-            } catch (TimeoutException e) {
-                log.log(Level.WARNING, String.format("Timeout waiting for node %s to connect", node.getNodeName()), e);
+            });
+        } catch (RejectedExecutionException e) {
+            // The node still connects on its own, it is only not waited for.
+            log.log(Level.WARNING, String.format("Not waiting for node %s to connect", node.getNodeName()), e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private Node waitForConnection(InstanceConfiguration config, ComputeEngineInstance node)
+            throws InterruptedException, ExecutionException {
+        long startTime = System.currentTimeMillis();
+        log.log(
+                Level.INFO,
+                String.format(
+                        "Waiting %dms for node %s to connect", config.getLaunchTimeoutMillis(), node.getNodeName()));
+        try {
+            Computer c = node.toComputer();
+            if (c != null) {
+                c.connect(false).get(config.getLaunchTimeoutMillis(), TimeUnit.MILLISECONDS);
+                log.log(
+                        Level.INFO,
+                        String.format(
+                                "%dms elapsed waiting for node %s to connect",
+                                System.currentTimeMillis() - startTime, node.getNodeName()));
+            } else {
+                log.log(Level.WARNING, String.format("No computer for node %s found", node.getNodeName()));
             }
-            return null;
-        });
+        } catch (TimeoutException e) {
+            log.log(Level.WARNING, String.format("Timeout waiting for node %s to connect", node.getNodeName()), e);
+        }
+        return null;
     }
 
     /**
@@ -329,18 +510,19 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
      */
     private synchronized Integer availableNodeCapacity() throws IOException {
         try {
-            // We only care about instances that have a label indicating they
-            // belong to this cloud
-            Map<String, String> filterLabel = ImmutableMap.of(CLOUD_ID_LABEL_KEY, getInstanceId());
-            List<Instance> instances = new ArrayList<>(getClient().listInstancesWithLabel(projectId, filterLabel));
+            List<Instance> instances = new ArrayList<>(ApiRateLimiter.withPriority(
+                    Priority.PROVISIONING, () -> listCloudInstances(INSTANCE_SUMMARY_FIELDS)));
 
-            // Don't count instances that are not running (or starting up)
+            // Don't count instances that are not running (or starting up), unless they are still
+            // being deleted.
+            TerminationQueue terminations = getTerminationQueue();
             Iterator it = instances.iterator();
             while (it.hasNext()) {
                 Instance o = (Instance) it.next();
                 if (!(o.getStatus().equals("PROVISIONING")
                         || o.getStatus().equals("STAGING")
-                        || o.getStatus().equals("RUNNING"))) {
+                        || o.getStatus().equals("RUNNING")
+                        || terminations.isPending(o.getName()))) {
                     it.remove();
                 }
             }
@@ -355,6 +537,46 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
         }
     }
 
+    /**
+     * Lists the instances that have a label indicating they belong to this cloud, with only some of
+     * their fields so that large numbers of instances are cheap to list.
+     *
+     * @param fields The instance fields to return, e.g. {@link #INSTANCE_SUMMARY_FIELDS}.
+     * @return The instances of this cloud.
+     * @throws IOException If the instances could not be listed.
+     */
+    public List<Instance> listCloudInstances(String fields) throws IOException {
+        Map<String, String> filterLabel = ImmutableMap.of(CLOUD_ID_LABEL_KEY, getInstanceId());
+        return ComputeClientPool.getInstanceLister(credentialsId, httpTransport)
+                .listInstancesWithLabel(projectId, filterLabel, fields);
+    }
+
+    /**
+     * Lists the disks created for the instances of this cloud, in all zones.
+     *
+     * @param fields The disk fields to return, e.g. {@code name,zone,users}.
+     * @return The disks, with only the requested fields set.
+     * @throws IOException If the disks could not be listed.
+     */
+    public List<Disk> listCloudDisks(String fields) throws IOException {
+        Map<String, String> filterLabel = ImmutableMap.of(CLOUD_ID_LABEL_KEY, getInstanceId());
+        return ComputeClientPool.getInstanceLister(credentialsId, httpTransport)
+                .listDisksWithLabel(projectId, filterLabel, fields);
+    }
+
+    /**
+     * Lists the snapshots taken of the instances of this cloud.
+     *
+     * @param fields The snapshot fields to return, e.g. {@code name,creationTimestamp}.
+     * @return The snapshots, with only the requested fields set.
+     * @throws IOException If the snapshots could not be listed.
+     */
+    public List<Snapshot> listCloudSnapshots(String fields) throws IOException {
+        Map<String, String> filterLabel = ImmutableMap.of(CLOUD_ID_LABEL_KEY, getInstanceId());
+        return ComputeClientPool.getInstanceLister(credentialsId, httpTransport)
+                .listSnapshotsWithLabel(projectId, filterLabel, fields);
+    }
+
     @Override
     public boolean canProvision(Label label) {
         try {
@@ -470,6 +692,13 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
                                     StandardCredentials.class, context, ACL.SYSTEM, domainRequirements));
         }
 
+        @RequirePOST
+        public FormValidation doRefreshCachedLists(@QueryParameter("credentialsId") String credentialsId) {
+            checkPermissions(Jenkins.get(), Jenkins.ADMINISTER);
+            LookupCache.get().invalidate(credentialsId);
+            return FormValidation.ok("Cached lists cleared, reload the page to fetch them again.");
+        }
+
         @RequirePOST
         public FormValidation doCheckCredentialsId(
                 @AncestorInPath Jenkins context,
@@ -480,8 +709,7 @@ public class ComputeEngineCloud extends AbstractCloudImpl {
 
             if (projectId.isEmpty()) return FormValidation.error("Project ID required to validate credential");
             try {
-                ClientFactory clientFactory = ClientUtil.getClientFactory(context, value);
-                ComputeClient compute = clientFactory.computeClient();
+                ComputeClient compute = ComputeClientPool.getClient(value);
                 compute.listRegions(projectId);
                 return FormValidation.ok("The credential successfully made an API request to Google Compute Engine.");
             } catch (IOException ioe) {
@@ -32,6 +32,7 @@ import org.kohsuke.stapler.HttpResponse;
 
 @Log
 public class ComputeEngineComputer extends AbstractCloudComputer<ComputeEngineInstance> {
+    private static final String STATUS_FIELDS = "status";
 
     private volatile Instance instance;
     private CompletableFuture<Boolean> preemptedFuture;
@@ -49,8 +50,7 @@ public class ComputeEngineComputer extends AbstractCloudComputer<ComputeEngineIn
                 final String msg = "Instance " + nodeName + " is preemptive, setting up preemption listener";
                 log.log(Level.INFO, msg);
                 listener.getLogger().println(msg);
-                preemptedFuture = CompletableFuture.supplyAsync(
-                        () -> getPreemptedStatus(listener, nodeName), threadPoolForRemoting);
+                preemptedFuture = node.getCloud().getExecutor().watch(() -> getPreemptedStatus(listener, nodeName));
             }
         }
     }
@@ -140,17 +140,22 @@ public class ComputeEngineComputer extends AbstractCloudComputer<ComputeEngineIn
      * @throws IOException
      */
     public String getInstanceStatus() throws IOException {
-        instance = _getInstance();
-        return instance.getStatus();
+        // Only the status is fetched, the cached instance is kept.
+        return _getInstance(STATUS_FIELDS).getStatus();
     }
 
     private Instance _getInstance() throws IOException {
+        return _getInstance(null);
+    }
+
+    private Instance _getInstance(String fields) throws IOException {
         try {
             ComputeEngineInstance node = getNode();
             ComputeEngineCloud cloud = getCloud();
 
             if (node != null) {
-                return cloud.getClient().getInstance(cloud.getProjectId(), node.getZone(), node.getNodeName());
+                // Batched, as many agents are checked at the same time when they boot.
+                return cloud.getBatcher().getInstance(cloud.getProjectId(), node.getZone(), node.getNodeName(), fields);
             } else {
                 return null;
             }
@@ -20,18 +20,14 @@ import com.google.api.services.compute.model.AccessConfig;
 import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.NetworkInterface;
 import com.google.api.services.compute.model.Operation;
-import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
 import com.google.cloud.graphite.platforms.plugin.client.ComputeClient.OperationException;
-import com.google.cloud.graphite.platforms.plugin.client.model.GuestAttribute;
-import com.google.cloud.graphite.platforms.plugin.client.model.InstanceResourceData;
-import com.google.cloud.graphite.platforms.plugin.client.util.ClientUtil;
-import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import com.trilead.ssh2.Connection;
 import com.trilead.ssh2.HTTPProxyData;
 import com.trilead.ssh2.SCPClient;
 import com.trilead.ssh2.Session;
+import com.trilead.ssh2.transport.KexManager;
 import hudson.ProxyConfiguration;
-import hudson.Util;
 import hudson.model.TaskListener;
 import hudson.remoting.Channel;
 import hudson.slaves.ComputerLauncher;
@@ -40,8 +36,18 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -53,12 +59,12 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
     private static final Logger LOGGER = Logger.getLogger(ComputeEngineComputerLauncher.class.getName());
     private static final SimpleFormatter sf = new SimpleFormatter();
     private static final String AGENT_JAR = "agent.jar";
-    private static final String GUEST_ATTRIBUTE_HOST_KEY_NAMESPACE = "hostkeys";
+    private static volatile String agentJarSha256;
 
     // TODO(google-compute-engine-plugin/issues/134): make this configurable
     private static final int SSH_PORT = 22;
-    private static final int SSH_TIMEOUT_MILLIS = 10000;
-    private static final int SSH_SLEEP_MILLIS = 5000;
+    // Delay before also trying the next address, see RFC 8305
+    private static final long CONNECT_ATTEMPT_DELAY_MILLIS = 250;
 
     private final String insertOperationId;
     private final String zone;
@@ -67,13 +73,45 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
     @Getter
     protected final boolean useInternalAddress;
 
+    private final LaunchRetryPolicy retryPolicy;
+
+    private transient volatile HostKeyCache hostKeyCache;
+    private transient volatile List<String> addressCandidates;
+    private transient volatile long launchDeadlineMillis;
+
     public ComputeEngineComputerLauncher(
             String cloudName, String insertOperationId, String zone, boolean useInternalAddress) {
+        this(cloudName, insertOperationId, zone, useInternalAddress, null);
+    }
+
+    public ComputeEngineComputerLauncher(
+            String cloudName,
+            String insertOperationId,
+            String zone,
+            boolean useInternalAddress,
+            LaunchRetryPolicy retryPolicy) {
         super();
         this.cloudName = cloudName;
         this.insertOperationId = insertOperationId;
         this.zone = zone;
         this.useInternalAddress = useInternalAddress;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /** @return The configured launch retry policy, or else the default policy. */
+    protected LaunchRetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : new LaunchRetryPolicy();
+    }
+
+    /**
+     * Starts a launch phase, bounded by its budget and the launch timeout of the node.
+     *
+     * @param phaseBudgetSeconds The time budget of the phase, 0 for no budget.
+     * @return The backoff to use between attempts of the phase.
+     */
+    protected LaunchRetryPolicy.Backoff newBackoff(int phaseBudgetSeconds) {
+        long deadline = launchDeadlineMillis;
+        return getRetryPolicy().backoff(phaseBudgetSeconds, deadline > 0 ? deadline : Long.MAX_VALUE);
     }
 
     public static void log(Logger logger, Level level, TaskListener listener, String message) {
@@ -137,6 +175,10 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
             return;
         }
 
+        // A launch timeout of 0 or less does not limit the launch.
+        long launchTimeoutMillis = node.getLaunchTimeoutMillis();
+        launchDeadlineMillis = launchTimeoutMillis > 0 ? System.currentTimeMillis() + launchTimeoutMillis : 0;
+
         // Wait until the Operation from the Instance insert is complete or fails
         Operation.Error opError = new Operation.Error();
         try {
@@ -167,6 +209,7 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
 
         try {
             // The operation succeeded. Now wait for the Instance status to be RUNNING
+            LaunchRetryPolicy.Backoff runningBackoff = newBackoff(0);
             OUTER:
             while (true) {
                 switch (computer.getInstanceStatus()) {
@@ -206,12 +249,23 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
                                         "Instance %s was unexpectedly stopped or suspended...", computer.getName()));
                         return;
                 }
-                Thread.sleep(5000);
+                if (!runningBackoff.awaitNextAttempt()) {
+                    throw new IOException(
+                            String.format("Timed out waiting for instance %s to be running", computer.getName()));
+                }
             }
 
             // Initiate the next launch phase. This is likely an SSH-based process for Linux hosts.
-            computer.refreshInstance();
-            launch(computer, listener);
+            // Host keys are fetched in the background while SSH comes up.
+            Instance instance = computer.refreshInstance();
+            try (HostKeyCache hostKeys = HostKeyCache.start(cloud.getBatcher(), instance)) {
+                hostKeyCache = hostKeys;
+                addressCandidates = getAddressCandidates(instance, computer, listener);
+                launch(computer, listener);
+            } finally {
+                hostKeyCache = null;
+                addressCandidates = null;
+            }
         } catch (IOException ioe) {
             ioe.printStackTrace(listener.error(ioe.getMessage()));
             node = (ComputeEngineInstance) slaveComputer.getNode();
@@ -243,6 +297,15 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
 
     protected abstract String getPathSeparator();
 
+    /** @return The path the startup script downloads agent.jar to when agent.jar prefetch is enabled. */
+    protected abstract String getPrefetchedAgentJarPath();
+
+    /**
+     * @return A command exiting with status 0 when the file at {@code path} has the given SHA-256
+     *     digest, waiting briefly for a download still in progress.
+     */
+    protected abstract String getVerifyAgentJarCommand(String path, String sha256);
+
     private boolean checkJavaInstalled(
             ComputeEngineComputer computer,
             Connection conn,
@@ -269,8 +332,52 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
         scp.put(Jenkins.get().getJnlpJars(AGENT_JAR).readFully(), AGENT_JAR, jenkinsDir);
     }
 
-    private String getJavaLaunchString(String javaExecPath, String jenkinsDir) {
-        return String.format("%s -jar %s%s%s", javaExecPath, jenkinsDir, getPathSeparator(), AGENT_JAR);
+    /**
+     * Makes agent.jar available on the instance, preferring the copy downloaded by the startup script
+     * when the node was provisioned with agent.jar prefetch and it matches the controller's agent.jar.
+     *
+     * @return The path of agent.jar on the instance.
+     */
+    private String prepareAgentJar(
+            ComputeEngineComputer computer,
+            ComputeEngineInstance node,
+            Connection conn,
+            PrintStream logger,
+            TaskListener listener,
+            String jenkinsDir)
+            throws IOException {
+        if (node.isAgentJarPrefetch()) {
+            String prefetchedPath = getPrefetchedAgentJarPath();
+            try {
+                String verifyCommand = getVerifyAgentJarCommand(prefetchedPath, agentJarSha256());
+                if (testCommand(computer, conn, verifyCommand, logger, listener)) {
+                    logInfo(computer, listener, "Using agent.jar prefetched to: " + prefetchedPath);
+                    return prefetchedPath;
+                }
+                logInfo(computer, listener, "Prefetched agent.jar is missing or outdated, copying it instead");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while verifying prefetched agent.jar", e);
+            }
+        }
+        copyAgentJar(computer, conn, listener, jenkinsDir);
+        return jenkinsDir + getPathSeparator() + AGENT_JAR;
+    }
+
+    private static String agentJarSha256() throws IOException {
+        // agent.jar only changes with the Jenkins version, so hash it once per controller run.
+        String sha256 = agentJarSha256;
+        if (sha256 == null) {
+            sha256 = Hashing.sha256()
+                    .hashBytes(Jenkins.get().getJnlpJars(AGENT_JAR).readFully())
+                    .toString();
+            agentJarSha256 = sha256;
+        }
+        return sha256;
+    }
+
+    private String getJavaLaunchString(String javaExecPath, String agentJarPath) {
+        return String.format("%s -jar %s", javaExecPath, agentJarPath);
     }
 
     private void launch(ComputeEngineComputer computer, TaskListener listener) {
@@ -296,8 +403,8 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
                 return;
             }
             String jenkinsDir = node.getRemoteFS();
-            copyAgentJar(computer, conn, listener, jenkinsDir);
-            String launchString = getJavaLaunchString(javaExecPath, jenkinsDir);
+            String agentJarPath = prepareAgentJar(computer, node, conn, logger, listener, jenkinsDir);
+            String launchString = getJavaLaunchString(javaExecPath, agentJarPath);
             logInfo(computer, listener, "Launching Jenkins agent via plugin SSH: " + launchString);
             sess = conn.openSession();
             sess.execCommand(launchString);
@@ -327,146 +434,277 @@ public abstract class ComputeEngineComputerLauncher extends ComputerLauncher {
             throw new IllegalArgumentException("A ComputeEngineComputer with no node was provided");
         }
 
-        ComputeClient client = node.getCloud().getClient();
-        final long timeout = node.getLaunchTimeoutMillis();
+        final LaunchRetryPolicy.Backoff backoff = newBackoff(getRetryPolicy().getConnectBudgetSeconds());
         final long startTime = System.currentTimeMillis();
-        Connection conn = null;
         while (true) {
             try {
-                long waitTime = System.currentTimeMillis() - startTime;
-                if (timeout > 0 && waitTime > timeout) {
+                if (backoff.isExpired()) {
                     // TODO(google-compute-engine-plugin/issues/135): better exception
                     throw new Exception("Timed out after "
-                            + (waitTime / 1000)
+                            + ((System.currentTimeMillis() - startTime) / 1000)
                             + " seconds of waiting for ssh to become available. (maximum timeout configured is "
-                            + (timeout / 1000)
+                            + (node.getLaunchTimeoutMillis() / 1000)
                             + ")");
                 }
-                Instance instance = computer.refreshInstance();
+                List<String> hosts = addressCandidates;
+                if (hosts == null) {
+                    hosts = getAddressCandidates(computer.refreshInstance(), computer, listener);
+                    addressCandidates = hosts;
+                }
+                Connection conn = connectToFirstAvailable(
+                        node, computer, listener, computer.getInstance(), hosts, backoff.connectTimeoutMillis());
+                logInfo(computer, listener, "Connected via SSH.");
+                return conn;
+            } catch (IOException e) {
+                // keep retrying until SSH comes up
+                logInfo(computer, listener, "Failed to connect via ssh: " + e.getMessage());
+                logInfo(computer, listener, "Waiting for SSH to come up.");
+                backoff.awaitNextAttempt();
+            }
+        }
+    }
+
+    /**
+     * Returns the addresses SSH connections to the instance are attempted on, in order of
+     * preference. Public IPv6 is preferred over public IPv4, which is preferred over the internal
+     * address. Only the internal address is used when connecting through a bastion.
+     */
+    private List<String> getAddressCandidates(
+            Instance instance, ComputeEngineComputer computer, TaskListener listener) {
+        // TODO(google-compute-engine-plugin/issues/136): handle multiple NICs
+        NetworkInterface nic = instance.getNetworkInterfaces().get(0);
+        List<String> hosts = new ArrayList<>();
+        ComputeEngineInstance node = computer.getNode();
+        if (this.useInternalAddress || (node != null && node.getBastionConfig() != null)) {
+            hosts.add(nic.getNetworkIP());
+            return hosts;
+        }
+
+        // Look for a public IPv6 address
+        if (nic.getIpv6AccessConfigs() != null) {
+            for (AccessConfig ac : nic.getIpv6AccessConfigs()) {
+                if (ac.getType().equals(NetworkInterfaceDualStack.IPV6_TYPE) && ac.getExternalIpv6() != null) {
+                    hosts.add(ac.getExternalIpv6());
+                }
+            }
+        }
+        // Look for a public IPv4 address
+        if (nic.getAccessConfigs() != null) {
+            for (AccessConfig ac : nic.getAccessConfigs()) {
+                if (ac.getType().equals(NetworkInterfaceIpStackMode.NAT_TYPE) && ac.getNatIP() != null) {
+                    hosts.add(ac.getNatIP());
+                }
+            }
+        }
+        // No public address found. Fall back to internal address
+        if (hosts.isEmpty()) {
+            hosts.add(nic.getNetworkIP());
+            logInfo(computer, listener, "No public address found. Fall back to internal address.");
+        }
+        return hosts;
+    }
 
-                String host = "";
+    /**
+     * Connects to the first host that accepts an SSH connection. Attempts are started in order of
+     * preference and staggered, a new attempt starts when the previous one fails or has not
+     * completed within {@link #CONNECT_ATTEMPT_DELAY_MILLIS}. Connections that complete after
+     * another attempt won are closed. Attempts that are still queued on the cloud executor, or
+     * still connecting, when the launch deadline or the time allowed for the attempts passes are
+     * cancelled.
+     */
+    private Connection connectToFirstAvailable(
+            ComputeEngineInstance node,
+            ComputeEngineComputer computer,
+            TaskListener listener,
+            Instance instance,
+            List<String> hosts,
+            int connectTimeoutMillis)
+            throws IOException, InterruptedException {
+        if (hosts.size() == 1) {
+            return connectToHost(node, computer, listener, instance, hosts.get(0), connectTimeoutMillis);
+        }
+        // Each attempt connects, exchanges keys and verifies the host key, each within the timeout.
+        long deadline = System.currentTimeMillis()
+                + hosts.size() * CONNECT_ATTEMPT_DELAY_MILLIS
+                + 3L * connectTimeoutMillis;
+        long launchDeadline = launchDeadlineMillis;
+        if (launchDeadline > 0) {
+            deadline = Math.min(deadline, launchDeadline);
+        }
+        return connectToFirstAvailable(
+                hosts,
+                host -> connectToHost(node, computer, listener, instance, host, connectTimeoutMillis),
+                node.getCloud().getExecutor(),
+                deadline);
+    }
 
-                // TODO(google-compute-engine-plugin/issues/136): handle multiple NICs
-                NetworkInterface nic = instance.getNetworkInterfaces().get(0);
+    /** Opens an SSH connection to a host. */
+    interface HostConnector {
+        Connection connect(String host) throws IOException;
+    }
 
-                if (this.useInternalAddress) {
-                    host = nic.getNetworkIP();
-                } else {
-                    // Look for a public IPv4 address
-                    if (nic.getAccessConfigs() != null) {
-                        for (AccessConfig ac : nic.getAccessConfigs()) {
-                            if (ac.getType().equals(NetworkInterfaceIpStackMode.NAT_TYPE)) {
-                                host = ac.getNatIP();
-                            }
-                        }
-                    }
-                    // Look for a public IPv6 address
-                    // TODO: IPv6 address is preferred compared to IPv4, we could let the user select
-                    //  his preferences to prioritize them.
-                    if (nic.getIpv6AccessConfigs() != null) {
-                        for (AccessConfig ac : nic.getIpv6AccessConfigs()) {
-                            if (ac.getType().equals(NetworkInterfaceDualStack.IPV6_TYPE)) {
-                                host = ac.getExternalIpv6();
+    /**
+     * @param hosts The hosts to try, in order of preference.
+     * @param connector Connects to a host.
+     * @param executor The executor running the attempts.
+     * @param deadlineMillis Epoch millis after which the remaining attempts are cancelled.
+     * @return The first connection established.
+     * @throws IOException If no connection could be established before the deadline.
+     */
+    static Connection connectToFirstAvailable(
+            List<String> hosts, HostConnector connector, Executor executor, long deadlineMillis)
+            throws IOException, InterruptedException {
+        AtomicReference<Connection> winner = new AtomicReference<>();
+        CompletionService<Connection> attempts = new ExecutorCompletionService<>(executor);
+        List<Future<Connection>> futures = new ArrayList<>();
+        IOException failure = null;
+        boolean returned = false;
+        int next = 0;
+        int running = 0;
+        try {
+            while (next < hosts.size() || running > 0) {
+                if (next < hosts.size()) {
+                    String host = hosts.get(next++);
+                    try {
+                        futures.add(attempts.submit(() -> {
+                            Connection conn = connector.connect(host);
+                            if (!winner.compareAndSet(null, conn)) {
+                                conn.close();
+                                throw new IOException("Connection to " + host + " was not needed");
                             }
+                            return conn;
+                        }));
+                        running++;
+                    } catch (RejectedExecutionException e) {
+                        // The cloud is saturated, count it as a failed attempt.
+                        IOException rejected = new IOException("No thread available to connect to " + host, e);
+                        if (failure == null) {
+                            failure = rejected;
+                        } else {
+                            failure.addSuppressed(rejected);
                         }
+                        continue;
                     }
-                    // No public address found. Fall back to internal address
-                    if (host.isEmpty()) {
-                        host = nic.getNetworkIP();
-                        logInfo(computer, listener, "No public address found. Fall back to internal address.");
+                }
+                long remainingMillis = deadlineMillis - System.currentTimeMillis();
+                if (remainingMillis <= 0) {
+                    IOException timeout = new IOException("Timed out connecting to any of " + hosts);
+                    if (failure != null) {
+                        timeout.addSuppressed(failure);
                     }
+                    throw timeout;
                 }
-
-                int port = SSH_PORT;
-                logInfo(
-                        computer,
-                        listener,
-                        "Connecting to " + host + " on port " + port + ", with timeout " + SSH_TIMEOUT_MILLIS + ".");
-                conn = new Connection(host, port);
-                ProxyConfiguration proxyConfig = Jenkins.get().proxy;
-                Proxy proxy = proxyConfig == null ? Proxy.NO_PROXY : proxyConfig.createProxy(host);
-                if (!node.isIgnoreProxy()
-                        && !proxy.equals(Proxy.NO_PROXY)
-                        && proxy.address() instanceof InetSocketAddress) {
-                    InetSocketAddress address = (InetSocketAddress) proxy.address();
-                    HTTPProxyData proxyData = null;
-                    if (proxyConfig.getUserName() != null && proxyConfig.getPassword() != null) {
-                        proxyData = new HTTPProxyData(
-                                address.getHostName(),
-                                address.getPort(),
-                                proxyConfig.getUserName(),
-                                proxyConfig.getPassword());
+                long waitMillis = next < hosts.size()
+                        ? Math.min(CONNECT_ATTEMPT_DELAY_MILLIS, remainingMillis)
+                        : remainingMillis;
+                Future<Connection> done = attempts.poll(waitMillis, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    continue;
+                }
+                running--;
+                try {
+                    Connection conn = done.get();
+                    returned = true;
+                    return conn;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
                     } else {
-                        proxyData = new HTTPProxyData(address.getHostName(), address.getPort());
+                        failure.addSuppressed(e.getCause());
                     }
-                    conn.setProxyData(proxyData);
-                    logInfo(computer, listener, "Using HTTP Proxy Configuration");
                 }
-
-                conn.connect(
-                        (hostname, portNum, serverHostKeyAlgorithm, serverHostKey) -> verifyServerHostKey(
-                                client, computer, listener, instance, serverHostKeyAlgorithm, serverHostKey),
-                        SSH_TIMEOUT_MILLIS,
-                        SSH_TIMEOUT_MILLIS);
-                logInfo(computer, listener, "Connected via SSH.");
-                return conn;
-            } catch (IOException e) {
-                // keep retrying until SSH comes up
-                logInfo(computer, listener, "Failed to connect via ssh: " + e.getMessage());
-                logInfo(computer, listener, "Waiting for SSH to come up. Sleeping 5.");
-                Thread.sleep(SSH_SLEEP_MILLIS);
+            }
+            throw failure;
+        } finally {
+            for (Future<Connection> future : futures) {
+                future.cancel(true);
+            }
+            Connection won = winner.get();
+            if (!returned && won != null) {
+                won.close();
             }
         }
     }
 
-    private boolean verifyServerHostKey(
-            ComputeClient client,
+    private Connection connectToHost(
+            ComputeEngineInstance node,
             ComputeEngineComputer computer,
             TaskListener listener,
             Instance instance,
-            String serverHostKeyAlgorithm,
-            byte[] serverHostKey)
+            String host,
+            int connectTimeoutMillis)
             throws IOException {
-        Optional<InstanceResourceData> instanceResourceData =
-                ClientUtil.parseInstanceResourceData(instance.getSelfLink());
-        if (!instanceResourceData.isPresent()) {
-            throw new IOException(String.format(
-                    "Failed to retrieve instance resource data for instance: %s", instance.getSelfLink()));
+        int port = SSH_PORT;
+        logInfo(
+                computer,
+                listener,
+                "Connecting to " + host + " on port " + port + ", with timeout " + connectTimeoutMillis + ".");
+        Connection conn = new Connection(host, port);
+        ProxyConfiguration proxyConfig = Jenkins.get().proxy;
+        Proxy proxy = proxyConfig == null ? Proxy.NO_PROXY : proxyConfig.createProxy(host);
+        if (node.getBastionConfig() != null) {
+            conn.setProxyData(BastionConnectionPool.get().proxyData(node.getBastionConfig()));
+            logInfo(computer, listener, "Connecting through bastion " + node.getBastionConfig().getHost());
+        } else if (!node.isIgnoreProxy()
+                && !proxy.equals(Proxy.NO_PROXY)
+                && proxy.address() instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) proxy.address();
+            HTTPProxyData proxyData = null;
+            if (proxyConfig.getUserName() != null && proxyConfig.getPassword() != null) {
+                proxyData = new HTTPProxyData(
+                        address.getHostName(), address.getPort(), proxyConfig.getUserName(), proxyConfig.getPassword());
+            } else {
+                proxyData = new HTTPProxyData(address.getHostName(), address.getPort());
+            }
+            conn.setProxyData(proxyData);
+            logInfo(computer, listener, "Using HTTP Proxy Configuration");
+        }
+
+        HostKeyCache hostKeys = hostKeyCache;
+        if (hostKeys != null) {
+            conn.setServerHostKeyAlgorithms(
+                    hostKeys.preferredAlgorithms(KexManager.getDefaultServerHostkeyAlgorithmList()));
         }
 
-        ImmutableList<GuestAttribute> guestAttrList;
         try {
-            guestAttrList = client.getGuestAttributesSync(
-                    instanceResourceData.get().getProjectId(),
-                    instanceResourceData.get().getZone(),
-                    instanceResourceData.get().getName(),
-                    Util.rawEncode(GUEST_ATTRIBUTE_HOST_KEY_NAMESPACE + "/"));
+            conn.connect(
+                    (hostname, portNum, serverHostKeyAlgorithm, serverHostKey) -> verifyServerHostKey(
+                            computer, listener, instance, serverHostKeyAlgorithm, serverHostKey, connectTimeoutMillis),
+                    connectTimeoutMillis,
+                    connectTimeoutMillis);
         } catch (IOException e) {
-            logWarning(
-                    computer,
-                    listener,
-                    String.format(
-                            "Failed to verify server host key because no host key metadata was available: %s",
-                            e.getMessage()));
-            return true;
+            conn.close();
+            throw e;
         }
+        return conn;
+    }
 
-        Optional<GuestAttribute> hostKeyAttr = guestAttrList.stream()
-                .filter(attr -> attr.getNamespace().equals(GUEST_ATTRIBUTE_HOST_KEY_NAMESPACE)
-                        && attr.getKey().equals(serverHostKeyAlgorithm.toLowerCase()))
-                .findFirst();
-
-        if (!hostKeyAttr.isPresent()) {
+    private boolean verifyServerHostKey(
+            ComputeEngineComputer computer,
+            TaskListener listener,
+            Instance instance,
+            String serverHostKeyAlgorithm,
+            byte[] serverHostKey,
+            int connectTimeoutMillis) {
+        HostKeyCache hostKeys = hostKeyCache;
+        // The key exchange has to complete within the connect timeout, leave most of it to the handshake.
+        Optional<String> expectedHostKey = hostKeys == null
+                ? Optional.empty()
+                : hostKeys.get(serverHostKeyAlgorithm, connectTimeoutMillis / 4);
+
+        if (!expectedHostKey.isPresent()) {
             logWarning(
                     computer,
                     listener,
                     String.format(
-                            "Failed to verify server host key: host key guest attribute doesn't exist for instance: %s",
+                            "Failed to verify server host key: host key guest attribute not available for instance: %s",
                             instance.getSelfLink()));
             return true;
         }
 
-        if (!hostKeyAttr.get().getValue().equals(Base64.getEncoder().encodeToString(serverHostKey))) {
+        if (!expectedHostKey.get().equals(Base64.getEncoder().encodeToString(serverHostKey))) {
             logWarning(
                     computer,
                     listener,
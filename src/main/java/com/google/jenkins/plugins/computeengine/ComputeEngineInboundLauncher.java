@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.api.services.compute.model.Operation;
+import com.google.cloud.graphite.platforms.plugin.client.ComputeClient.OperationException;
+import hudson.model.TaskListener;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.SlaveComputer;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Launcher for inbound agents
+ *
+ * <p>The agent is started by the instance startup script and connects back to the controller, this
+ * launcher only waits for the instance insert operation and for the agent to come online.
+ */
+public class ComputeEngineInboundLauncher extends JNLPLauncher {
+    private static final Logger LOGGER = Logger.getLogger(ComputeEngineInboundLauncher.class.getName());
+    private static final long ONLINE_POLL_MILLIS = 1000;
+
+    private final String cloudName;
+    private final String insertOperationId;
+    private final String zone;
+
+    public ComputeEngineInboundLauncher(String cloudName, Operation insertOperation) {
+        super();
+        this.cloudName = cloudName;
+        this.insertOperationId = insertOperation.getName();
+        this.zone = insertOperation.getZone();
+    }
+
+    @Override
+    public boolean isLaunchSupported() {
+        return false;
+    }
+
+    @Override
+    public void launch(SlaveComputer slaveComputer, TaskListener listener) {
+        ComputeEngineComputer computer = (ComputeEngineComputer) slaveComputer;
+        ComputeEngineInstance node = computer.getNode();
+        if (node == null) {
+            ComputeEngineCloud.log(LOGGER, Level.SEVERE, listener, "Could not get node from computer");
+            return;
+        }
+
+        ComputeEngineCloud cloud;
+        try {
+            cloud = node.getCloud();
+        } catch (CloudNotFoundException cnfe) {
+            ComputeEngineCloud.log(
+                    LOGGER, Level.SEVERE, listener, String.format("Could not get cloud %s", cloudName), cnfe);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        try {
+            Operation.Error opError;
+            try {
+                Operation operation = cloud.getClient()
+                        .waitForOperationCompletion(
+                                cloud.getProjectId(), insertOperationId, zone, node.getLaunchTimeoutMillis());
+                opError = operation.getError();
+            } catch (OperationException e) {
+                opError = e.getError();
+            }
+            if (opError != null) {
+                cloud.log(
+                        LOGGER,
+                        Level.WARNING,
+                        listener,
+                        String.format(
+                                "Launch failed while waiting for operation %s to complete. Operation error was %s",
+                                insertOperationId, opError.getErrors().get(0).getMessage()));
+                terminate(node, listener);
+                return;
+            }
+
+            cloud.log(
+                    LOGGER,
+                    Level.INFO,
+                    listener,
+                    String.format("Instance %s created, waiting for the inbound agent to connect", node.getNodeName()));
+            // A launch timeout of 0 or less does not limit the launch.
+            long launchTimeoutMillis = node.getLaunchTimeoutMillis();
+            while (!computer.isOnline()) {
+                if (launchTimeoutMillis > 0 && System.currentTimeMillis() - startTime > launchTimeoutMillis) {
+                    cloud.log(
+                            LOGGER,
+                            Level.WARNING,
+                            listener,
+                            String.format(
+                                    "Timed out after %d seconds waiting for inbound agent %s to connect",
+                                    (System.currentTimeMillis() - startTime) / 1000, node.getNodeName()));
+                    terminate(node, listener);
+                    return;
+                }
+                Thread.sleep(ONLINE_POLL_MILLIS);
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace(listener.error(ioe.getMessage()));
+            terminate(node, listener);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void terminate(ComputeEngineInstance node, TaskListener listener) {
+        try {
+            node.terminate();
+        } catch (Exception e) {
+            listener.error(String.format("Failed to terminate node %s", node.getDisplayName()));
+        }
+    }
+}
@@ -50,9 +50,11 @@ public class ComputeEngineInstance extends AbstractCloudSlave {
     private final String sshUser;
     private final WindowsConfiguration windowsConfig;
     private final SshConfiguration sshConfig;
+    private final BastionConfiguration bastionConfig;
     private final boolean createSnapshot;
     private final boolean oneShot;
     private final boolean ignoreProxy;
+    private final boolean agentJarPrefetch;
     private final String javaExecPath;
     private final GoogleKeyCredential sshKeyCredential;
     private Integer launchTimeout; // Seconds
@@ -70,9 +72,11 @@ public class ComputeEngineInstance extends AbstractCloudSlave {
             // NOTE(stephenashank): Could not use optional due to serialization req.
             @Nullable WindowsConfiguration windowsConfig,
             @Nullable SshConfiguration sshConfig,
+            @Nullable BastionConfiguration bastionConfig,
             boolean createSnapshot,
             boolean oneShot,
             boolean ignoreProxy,
+            boolean agentJarPrefetch,
             int numExecutors,
             Mode mode,
             String labelString,
@@ -100,9 +104,11 @@ public class ComputeEngineInstance extends AbstractCloudSlave {
         this.sshUser = sshUser;
         this.windowsConfig = windowsConfig;
         this.sshConfig = sshConfig;
+        this.bastionConfig = bastionConfig;
         this.createSnapshot = createSnapshot;
         this.oneShot = oneShot;
         this.ignoreProxy = ignoreProxy;
+        this.agentJarPrefetch = agentJarPrefetch;
         this.javaExecPath = javaExecPath;
         this.sshKeyCredential = sshKeyCredential;
         this.cloud = cloud;
@@ -123,16 +129,17 @@ public class ComputeEngineInstance extends AbstractCloudSlave {
                     && this.createSnapshot
                     && computer != null
                     && !computer.getBuilds().failureOnly().isEmpty()) {
-                LOGGER.log(Level.INFO, "Creating snapshot for node ... " + this.getNodeName());
+                LOGGER.log(Level.INFO, "Queueing snapshot for node ... " + this.getNodeName());
                 long createSnapshotTimeout =
                         (windowsConfig != null) ? CREATE_SNAPSHOT_TIMEOUT_WINDOWS : CREATE_SNAPSHOT_TIMEOUT_LINUX;
-                cloud.getClient()
-                        .createSnapshotSync(cloud.getProjectId(), this.zone, this.getNodeName(), createSnapshotTimeout);
+                // The instance is deleted by the pipeline once its disks are no longer needed.
+                cloud.getSnapshotPipeline().enqueue(zone, name, createSnapshotTimeout);
+                return;
             }
 
-            // If the instance is running, attempt to terminate it. This is an async call and we
-            // return immediately, hoping for the best.
-            cloud.getClient().terminateInstanceAsync(cloud.getProjectId(), zone, name);
+            // If the instance is running, queue its deletion and return immediately. Deletes of
+            // agents terminated together are sent in batches and retried until they are done.
+            cloud.getTerminationQueue().enqueue(zone, name);
         } catch (CloudNotFoundException cnfe) {
             listener.error(cnfe.getMessage());
         } catch (OperationException oe) {
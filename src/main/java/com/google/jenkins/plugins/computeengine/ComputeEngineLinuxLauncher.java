@@ -30,11 +30,15 @@ import java.util.logging.Logger;
 public class ComputeEngineLinuxLauncher extends ComputeEngineComputerLauncher {
     private static final Logger LOGGER = Logger.getLogger(ComputeEngineLinuxLauncher.class.getName());
 
-    private static int bootstrapAuthTries = 30;
-    private static int bootstrapAuthSleepMs = 15000;
+    private static final int PREFETCH_WAIT_SECONDS = 10;
 
     public ComputeEngineLinuxLauncher(String cloudName, Operation insertOperation, boolean useInternalAddress) {
-        super(cloudName, insertOperation.getName(), insertOperation.getZone(), useInternalAddress);
+        this(cloudName, insertOperation, useInternalAddress, null);
+    }
+
+    public ComputeEngineLinuxLauncher(
+            String cloudName, Operation insertOperation, boolean useInternalAddress, LaunchRetryPolicy retryPolicy) {
+        super(cloudName, insertOperation.getName(), insertOperation.getZone(), useInternalAddress, retryPolicy);
     }
 
     protected Logger getLogger() {
@@ -72,7 +76,8 @@ public class ComputeEngineLinuxLauncher extends ComputeEngineComputerLauncher {
         }
         Connection bootstrapConn = null;
         try {
-            int tries = bootstrapAuthTries;
+            LaunchRetryPolicy.Backoff backoff = newBackoff(getRetryPolicy().getAuthBudgetSeconds());
+            int tries = getRetryPolicy().getAuthAttempts();
             boolean isAuthenticated = false;
             if (keyCred instanceof GoogleKeyPair) {
                 logInfo(computer, listener, "Getting keypair...");
@@ -98,8 +103,17 @@ public class ComputeEngineLinuxLauncher extends ComputeEngineComputerLauncher {
                 if (isAuthenticated) {
                     break;
                 }
+                if (bootstrapConn != null) {
+                    bootstrapConn.close();
+                    bootstrapConn = null;
+                }
+                if (tries == 0) {
+                    break;
+                }
                 logWarning(computer, listener, "Authentication failed. Trying again...");
-                Thread.sleep(bootstrapAuthSleepMs);
+                if (!backoff.awaitNextAttempt()) {
+                    break;
+                }
             }
             if (!isAuthenticated) {
                 logWarning(computer, listener, "Authentication failed");
@@ -119,4 +133,17 @@ public class ComputeEngineLinuxLauncher extends ComputeEngineComputerLauncher {
     protected String getPathSeparator() {
         return "/";
     }
+
+    @Override
+    protected String getPrefetchedAgentJarPath() {
+        return AgentStartupScripts.PREFETCHED_AGENT_JAR_LINUX;
+    }
+
+    @Override
+    protected String getVerifyAgentJarCommand(String path, String sha256) {
+        String quotedPath = AgentStartupScripts.shellQuote(path);
+        return String.format(
+                "for i in $(seq %d); do [ -f %s ] && break; sleep 1; done; echo '%s  '%s | sha256sum -c --status",
+                PREFETCH_WAIT_SECONDS, quotedPath, sha256, quotedPath);
+    }
 }
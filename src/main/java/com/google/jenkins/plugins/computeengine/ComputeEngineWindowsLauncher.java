@@ -32,11 +32,15 @@ import java.util.logging.Logger;
 public class ComputeEngineWindowsLauncher extends ComputeEngineComputerLauncher {
     private static final Logger LOGGER = Logger.getLogger(ComputeEngineWindowsLauncher.class.getName());
 
-    private static int bootstrapAuthTries = 30;
-    private static int bootstrapAuthSleepMs = 15000;
+    private static final int PREFETCH_WAIT_SECONDS = 10;
 
     public ComputeEngineWindowsLauncher(String cloudName, Operation insertOperation, boolean useInternalAddress) {
-        super(cloudName, insertOperation.getName(), insertOperation.getZone(), useInternalAddress);
+        this(cloudName, insertOperation, useInternalAddress, null);
+    }
+
+    public ComputeEngineWindowsLauncher(
+            String cloudName, Operation insertOperation, boolean useInternalAddress, LaunchRetryPolicy retryPolicy) {
+        super(cloudName, insertOperation.getName(), insertOperation.getZone(), useInternalAddress, retryPolicy);
     }
 
     protected Logger getLogger() {
@@ -86,7 +90,8 @@ public class ComputeEngineWindowsLauncher extends ComputeEngineComputerLauncher
         WindowsConfiguration windowsConfig = node.getWindowsConfig();
         Connection bootstrapConn = null;
         try {
-            int tries = bootstrapAuthTries;
+            LaunchRetryPolicy.Backoff backoff = newBackoff(getRetryPolicy().getAuthBudgetSeconds());
+            int tries = getRetryPolicy().getAuthAttempts();
             boolean isAuthenticated = false;
             while (tries-- > 0) {
                 logInfo(computer, listener, "Authenticating as " + node.getSshUser());
@@ -102,8 +107,17 @@ public class ComputeEngineWindowsLauncher extends ComputeEngineComputerLauncher
                 if (isAuthenticated) {
                     break;
                 }
+                if (bootstrapConn != null) {
+                    bootstrapConn.close();
+                    bootstrapConn = null;
+                }
+                if (tries == 0) {
+                    break;
+                }
                 logWarning(computer, listener, "Authentication failed. Trying again...");
-                Thread.sleep(bootstrapAuthSleepMs);
+                if (!backoff.awaitNextAttempt()) {
+                    break;
+                }
             }
             if (!isAuthenticated) {
                 logWarning(computer, listener, "Authentication failed");
@@ -123,4 +137,19 @@ public class ComputeEngineWindowsLauncher extends ComputeEngineComputerLauncher
     protected String getPathSeparator() {
         return "\\";
     }
+
+    @Override
+    protected String getPrefetchedAgentJarPath() {
+        return AgentStartupScripts.PREFETCHED_AGENT_JAR_WINDOWS;
+    }
+
+    @Override
+    protected String getVerifyAgentJarCommand(String path, String sha256) {
+        return String.format(
+                "powershell -NoProfile -Command \"$p = %s; "
+                        + "for ($i = 0; $i -lt %d -and -not (Test-Path $p); $i++) { Start-Sleep 1 }; "
+                        + "if ((Test-Path $p) -and (Get-FileHash -Algorithm SHA256 $p).Hash -eq '%s') { exit 0 }; "
+                        + "exit 1\"",
+                AgentStartupScripts.powershellQuote(path), PREFETCH_WAIT_SECONDS, sha256);
+    }
 }
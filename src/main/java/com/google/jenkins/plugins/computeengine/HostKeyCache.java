@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.api.services.compute.model.GuestAttributesEntry;
+import com.google.api.services.compute.model.Instance;
+import com.google.cloud.graphite.platforms.plugin.client.model.InstanceResourceData;
+import com.google.cloud.graphite.platforms.plugin.client.util.ClientUtil;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import hudson.Util;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+
+/**
+ * Host keys published by an instance as guest attributes, fetched in the background for the
+ * duration of a launch so that verifying the server host key during the SSH handshake does not
+ * need an API call. Fetching is retried in the background until the keys are available. A lookup
+ * of a key that has not been fetched yet fetches right away, or joins the fetch in flight, and waits
+ * for it at most {@link #FETCH_WAIT_MILLIS}, so the first handshake of a launch is verified against
+ * keys that are already published. The wait happens inside the SSH key exchange, so it is kept well
+ * below the connect timeout.
+ */
+final class HostKeyCache implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(HostKeyCache.class.getName());
+    static final String GUEST_ATTRIBUTE_HOST_KEY_NAMESPACE = "hostkeys";
+    private static final String ED25519 = "ssh-ed25519";
+    private static final long RETRY_MILLIS = 5000;
+    static final long FETCH_WAIT_MILLIS = Integer.getInteger(HostKeyCache.class.getName() + ".fetchWaitMillis", 1500);
+
+    private final ComputeBatcher batcher;
+    private final InstanceResourceData instanceData;
+    private final long fetchWaitMillis;
+    private volatile Map<String, String> hostKeys = Collections.emptyMap();
+    // Guarded by this
+    private boolean closed;
+    private ScheduledFuture<?> pending;
+    // Completed once the next fetch is done, whether it found keys or not.
+    private CompletableFuture<Void> nextFetch = new CompletableFuture<>();
+
+    HostKeyCache(ComputeBatcher batcher, InstanceResourceData instanceData, long fetchWaitMillis) {
+        this.batcher = batcher;
+        this.instanceData = instanceData;
+        this.fetchWaitMillis = fetchWaitMillis;
+    }
+
+    /**
+     * Starts fetching the host keys of an instance in the background.
+     *
+     * @param batcher The batcher used to read guest attributes.
+     * @param instance The instance, which should be RUNNING.
+     * @return The cache, to be closed once the launch no longer needs it.
+     * @throws IOException if the instance self link cannot be parsed.
+     */
+    static HostKeyCache start(ComputeBatcher batcher, Instance instance) throws IOException {
+        Optional<InstanceResourceData> instanceData = ClientUtil.parseInstanceResourceData(instance.getSelfLink());
+        if (!instanceData.isPresent()) {
+            throw new IOException(String.format(
+                    "Failed to retrieve instance resource data for instance: %s", instance.getSelfLink()));
+        }
+        HostKeyCache cache = new HostKeyCache(batcher, instanceData.get(), FETCH_WAIT_MILLIS);
+        cache.schedule(0);
+        return cache;
+    }
+
+    /**
+     * Looks up a host key. If it has not been fetched yet, waits for the fetch in flight, or a new
+     * one, to complete. A retry waiting for its delay is fetched right away instead.
+     *
+     * @param algorithm The SSH host key algorithm, e.g. {@code ssh-ed25519}.
+     * @param maxWaitMillis The longest the caller can wait, capped at {@link #FETCH_WAIT_MILLIS}.
+     * @return The base64 encoded host key, if it has been fetched.
+     */
+    Optional<String> get(String algorithm, long maxWaitMillis) {
+        String hostKey = hostKeys.get(algorithm.toLowerCase());
+        if (hostKey != null) {
+            return Optional.of(hostKey);
+        }
+        CompletableFuture<Void> fetch;
+        synchronized (this) {
+            fetch = nextFetch;
+            // A retry that has not started yet would only run after the caller gave up waiting.
+            if (pending != null && pending.getDelay(TimeUnit.MILLISECONDS) > 0 && pending.cancel(false)) {
+                pending = null;
+            }
+        }
+        schedule(0);
+        try {
+            fetch.get(Math.min(fetchWaitMillis, maxWaitMillis), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.log(Level.FINE, "Host keys of instance {0} not fetched in time", instanceData.getName());
+        }
+        return Optional.ofNullable(hostKeys.get(algorithm.toLowerCase()));
+    }
+
+    /**
+     * Orders host key algorithms so that the server is asked for a key that can be verified against
+     * the cached host keys, preferring Ed25519 whose signatures are the cheapest to verify.
+     *
+     * @param supported The host key algorithms supported by the SSH client, in its preference order.
+     * @return The same algorithms, reordered.
+     */
+    String[] preferredAlgorithms(String[] supported) {
+        Map<String, String> keys = hostKeys;
+        List<String> ordered = new ArrayList<>(Arrays.asList(supported));
+        ordered.sort(Comparator.comparing((String alg) -> !keys.containsKey(alg.toLowerCase()))
+                .thenComparing(alg -> !ED25519.equalsIgnoreCase(alg)));
+        return ordered.toArray(new String[0]);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        nextFetch.complete(null);
+    }
+
+    private synchronized void schedule(long delayMillis) {
+        if (closed || pending != null) {
+            return;
+        }
+        pending = Timer.get().schedule(this::fetch, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void fetch() {
+        // Runs on a timer thread, so the guest attributes are read without waiting for them.
+        batcher.getGuestAttributesAsync(
+                        instanceData.getProjectId(),
+                        instanceData.getZone(),
+                        instanceData.getName(),
+                        Util.rawEncode(GUEST_ATTRIBUTE_HOST_KEY_NAMESPACE + "/"))
+                .whenComplete(this::fetched);
+    }
+
+    private void fetched(List<GuestAttributesEntry> attributes, Throwable e) {
+        Map<String, String> fetched = new HashMap<>();
+        if (e != null) {
+            LOGGER.log(
+                    Level.FINE,
+                    String.format("Host keys not available yet for instance %s", instanceData.getName()),
+                    e);
+        } else {
+            for (GuestAttributesEntry attr : attributes) {
+                if (GUEST_ATTRIBUTE_HOST_KEY_NAMESPACE.equals(attr.getNamespace())) {
+                    fetched.put(attr.getKey(), attr.getValue());
+                }
+            }
+        }
+        if (!fetched.isEmpty()) {
+            hostKeys = Collections.unmodifiableMap(fetched);
+        }
+        CompletableFuture<Void> done;
+        synchronized (this) {
+            pending = null;
+            done = nextFetch;
+            nextFetch = new CompletableFuture<>();
+        }
+        done.complete(null);
+        if (fetched.isEmpty()) {
+            schedule(RETRY_MILLIS);
+        }
+    }
+}
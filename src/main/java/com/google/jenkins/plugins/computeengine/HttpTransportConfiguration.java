@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import hudson.Extension;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.apache.http.client.HttpClient;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * HTTP transport used by a cloud for Compute API requests. Connections are pooled and kept alive, so
+ * bursts of concurrent requests reuse warm TLS connections instead of each opening a new one.
+ */
+@Getter
+@Setter(onMethod = @__(@DataBoundSetter))
+@ToString
+@EqualsAndHashCode
+public class HttpTransportConfiguration implements Describable<HttpTransportConfiguration>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 20000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20000;
+    static final long IDLE_CONNECTION_TIMEOUT_SECONDS = 60;
+
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private boolean gzip = true;
+
+    @DataBoundConstructor
+    public HttpTransportConfiguration() {}
+
+    /**
+     * Creates a pooled transport. All Compute API requests go to the same host, so the connections
+     * per route bound the connections of the transport.
+     *
+     * @return The transport.
+     */
+    public HttpTransport createTransport() {
+        int maxConnections = Math.max(1, maxConnectionsPerRoute);
+        HttpClient httpClient = ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setMaxConnPerRoute(maxConnections)
+                .setMaxConnTotal(maxConnections)
+                .evictIdleConnections(IDLE_CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+        return new ApacheHttpTransport(httpClient);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Descriptor<HttpTransportConfiguration> getDescriptor() {
+        return Jenkins.get().getDescriptor(HttpTransportConfiguration.class);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<HttpTransportConfiguration> {
+        public FormValidation doCheckMaxConnectionsPerRoute(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckConnectTimeoutMillis(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckReadTimeoutMillis(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+    }
+}
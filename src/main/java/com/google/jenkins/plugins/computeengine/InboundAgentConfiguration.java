@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.common.base.Strings;
+import hudson.Extension;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import java.io.Serializable;
+import jenkins.model.Jenkins;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Class to contain information needed to launch agents as inbound agents. When selected, the agent
+ * is started by the instance startup script and connects back to the controller over WebSocket or
+ * the TCP agent port, so no SSH connection is made to the instance.
+ */
+@Getter
+@Setter(onMethod = @__(@DataBoundSetter))
+@Builder(builderClassName = "Builder")
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode
+public class InboundAgentConfiguration implements Describable<InboundAgentConfiguration>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private boolean webSocket;
+    private String jenkinsUrl;
+    private String tunnel;
+
+    @DataBoundConstructor
+    public InboundAgentConfiguration() {}
+
+    /**
+     * Returns the URL agents should use to reach the controller.
+     *
+     * @return The configured URL, or else the Jenkins root URL. May be null if neither is set.
+     */
+    public String getJenkinsUrlOrDefault() {
+        String url = !Strings.isNullOrEmpty(jenkinsUrl) ? jenkinsUrl : Jenkins.get().getRootUrl();
+        if (Strings.isNullOrEmpty(url)) {
+            return null;
+        }
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Descriptor<InboundAgentConfiguration> getDescriptor() {
+        return Jenkins.get().getDescriptor(InboundAgentConfiguration.class);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<InboundAgentConfiguration> {
+
+        public FormValidation doCheckJenkinsUrl(@QueryParameter String value) {
+            if (Strings.isNullOrEmpty(value) && Strings.isNullOrEmpty(Jenkins.get().getRootUrl())) {
+                return FormValidation.error("A Jenkins URL is required when the Jenkins root URL is not configured");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTunnel(@QueryParameter String value, @QueryParameter boolean webSocket) {
+            if (!Strings.isNullOrEmpty(value) && webSocket) {
+                return FormValidation.error("A tunnel cannot be used with WebSocket connections");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -23,6 +23,7 @@ import com.google.api.services.compute.model.AcceleratorConfig;
 import com.google.api.services.compute.model.AttachedDisk;
 import com.google.api.services.compute.model.AttachedDiskInitializeParams;
 import com.google.api.services.compute.model.DiskType;
+import com.google.api.services.compute.model.Duration;
 import com.google.api.services.compute.model.Image;
 import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.InstanceTemplate;
@@ -35,13 +36,15 @@ import com.google.api.services.compute.model.Scheduling;
 import com.google.api.services.compute.model.ServiceAccount;
 import com.google.api.services.compute.model.Tags;
 import com.google.api.services.compute.model.Zone;
-import com.google.cloud.graphite.platforms.plugin.client.ClientFactory;
 import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
 import com.google.common.base.Strings;
-import com.google.jenkins.plugins.computeengine.client.ClientUtil;
+import com.google.jenkins.plugins.computeengine.client.ApiRateLimiter;
+import com.google.jenkins.plugins.computeengine.client.ApiRateLimiter.Priority;
+import com.google.jenkins.plugins.computeengine.client.ComputeClientPool;
 import com.google.jenkins.plugins.computeengine.ssh.GoogleKeyCredential;
 import com.google.jenkins.plugins.computeengine.ssh.GoogleKeyPair;
 import com.google.jenkins.plugins.computeengine.ssh.GooglePrivateKey;
+import com.google.jenkins.plugins.computeengine.ssh.SshKeyAlgorithm;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
@@ -53,6 +56,7 @@ import hudson.model.Descriptor;
 import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.labels.LabelAtom;
+import hudson.slaves.ComputerLauncher;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import java.io.IOException;
@@ -65,8 +69,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import jenkins.model.Jenkins;
+import jenkins.slaves.JnlpAgentReceiver;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -91,10 +97,13 @@ import org.kohsuke.stapler.QueryParameter;
 public class InstanceConfiguration implements Describable<InstanceConfiguration> {
     public static final String GUEST_ATTRIBUTES_METADATA_KEY = "enable-guest-attributes";
     public static final String SSH_METADATA_KEY = "ssh-keys";
+    public static final String MAX_RUN_DURATION_KEY = "maxRunDuration";
+    public static final String INSTANCE_TERMINATION_ACTION_KEY = "instanceTerminationAction";
     public static final Long DEFAULT_BOOT_DISK_SIZE_GB = 10L;
     public static final Integer DEFAULT_NUM_EXECUTORS = 1;
     public static final Integer DEFAULT_LAUNCH_TIMEOUT_SECONDS = 300;
     public static final Integer DEFAULT_RETENTION_TIME_MINUTES = (DEFAULT_LAUNCH_TIMEOUT_SECONDS / 60) + 1;
+    public static final Integer DEFAULT_MAX_RUN_DURATION_MINUTES = 0;
     public static final String DEFAULT_RUN_AS_USER = "jenkins";
     public static final String METADATA_LINUX_STARTUP_SCRIPT_KEY = "startup-script";
     public static final String METADATA_WINDOWS_STARTUP_SCRIPT_KEY = "windows-startup-script-ps1";
@@ -136,6 +145,7 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
 
     private boolean useInternalAddress;
     private boolean ignoreProxy;
+    private boolean prefetchAgentJar;
     private String networkTags;
     private String serviceAccountEmail;
     private Node.Mode mode;
@@ -143,6 +153,7 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
     private String retentionTimeMinutesStr;
     private String launchTimeoutSecondsStr;
     private String bootDiskSizeGbStr;
+    private String maxRunDurationMinutesStr;
     private boolean oneShot;
     private String template;
     // Optional not possible due to serialization requirement
@@ -152,6 +163,23 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
     @Nullable
     private SshConfiguration sshConfiguration;
 
+    // Algorithm of autogenerated key pairs, null for the default algorithm.
+    @Nullable
+    private SshKeyAlgorithm sshKeyAlgorithm;
+
+    @Nullable
+    private InboundAgentConfiguration inboundAgentConfiguration;
+
+    @Nullable
+    private LaunchRetryPolicy launchRetryPolicy;
+
+    @Nullable
+    private BastionConfiguration bastionConfiguration;
+
+    // Retention of left over disks and snapshots, null to keep them.
+    @Nullable
+    private RetentionPolicy retentionPolicy;
+
     private boolean createSnapshot;
     private String remoteFs;
     private String javaExecPath;
@@ -160,9 +188,15 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
     private Integer numExecutors;
     private Integer retentionTimeMinutes;
     private Integer launchTimeoutSeconds;
+    private Integer maxRunDurationMinutes;
     private Long bootDiskSizeGb;
     private transient Set<LabelAtom> labelSet;
 
+    // Parts of the instance that only depend on this configuration, see prototype().
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient volatile Instance prototype;
+
     @Getter(AccessLevel.PROTECTED)
     @Setter(AccessLevel.PROTECTED)
     protected transient ComputeEngineCloud cloud;
@@ -225,6 +259,13 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
         this.bootDiskSizeGbStr = this.bootDiskSizeGb.toString();
     }
 
+    @DataBoundSetter
+    public void setMaxRunDurationMinutesStr(String maxRunDurationMinutesStr) {
+        this.maxRunDurationMinutes =
+                Math.max(0, intOrDefault(maxRunDurationMinutesStr, DEFAULT_MAX_RUN_DURATION_MINUTES));
+        this.maxRunDurationMinutesStr = this.maxRunDurationMinutes.toString();
+    }
+
     @DataBoundSetter
     public void setOneShot(boolean oneShot) {
         this.oneShot = oneShot;
@@ -288,6 +329,24 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
         return launchTimeoutSeconds * 1000;
     }
 
+    /**
+     * The run duration after which Compute Engine deletes a one-shot agent by itself: the launch
+     * timeout plus the configured duration, which is the expected build duration. The run duration of
+     * a running instance cannot be changed, so agents that are reused are not limited. Instances
+     * created from a template are scheduled by the template.
+     *
+     * @return The maximum run duration in seconds, 0 if agents are not limited.
+     */
+    public long getMaxRunDurationSeconds() {
+        if (!oneShot
+                || maxRunDurationMinutes == null
+                || maxRunDurationMinutes <= 0
+                || StringUtils.isNotEmpty(template)) {
+            return 0;
+        }
+        return TimeUnit.MINUTES.toSeconds(maxRunDurationMinutes) + launchTimeoutSeconds;
+    }
+
     public void appendLabels(Map<String, String> labels) {
         if (googleLabels == null) {
             googleLabels = new HashMap<>();
@@ -310,17 +369,18 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
                     cloud.getClient().insertInstance(cloud.getProjectId(), Optional.ofNullable(template), instance);
             log.info("Sent insert request for instance configuration [" + description + "]");
             String targetRemoteFs = this.remoteFs;
-            ComputeEngineComputerLauncher launcher;
-            if (this.windowsConfiguration != null) {
-                launcher = new ComputeEngineWindowsLauncher(cloud.getCloudName(), operation, this.useInternalAddress);
-                if (Strings.isNullOrEmpty(targetRemoteFs)) {
-                    targetRemoteFs = "C:\\";
-                }
+            ComputerLauncher launcher;
+            if (this.inboundAgentConfiguration != null) {
+                launcher = new ComputeEngineInboundLauncher(cloud.getCloudName(), operation);
+            } else if (this.windowsConfiguration != null) {
+                launcher = new ComputeEngineWindowsLauncher(
+                        cloud.getCloudName(), operation, this.useInternalAddress, this.launchRetryPolicy);
             } else {
-                launcher = new ComputeEngineLinuxLauncher(cloud.getCloudName(), operation, this.useInternalAddress);
-                if (Strings.isNullOrEmpty(targetRemoteFs)) {
-                    targetRemoteFs = "/tmp";
-                }
+                launcher = new ComputeEngineLinuxLauncher(
+                        cloud.getCloudName(), operation, this.useInternalAddress, this.launchRetryPolicy);
+            }
+            if (Strings.isNullOrEmpty(targetRemoteFs)) {
+                targetRemoteFs = defaultRemoteFs();
             }
             return ComputeEngineInstance.builder()
                     .cloud(cloud)
@@ -332,15 +392,17 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
                     .remoteFS(targetRemoteFs)
                     .windowsConfig(windowsConfiguration)
                     .sshConfig(sshConfiguration)
+                    .bastionConfig(bastionConfiguration)
                     .createSnapshot(createSnapshot)
                     .oneShot(oneShot)
                     .ignoreProxy(ignoreProxy)
+                    .agentJarPrefetch(isAgentJarPrefetchApplicable())
                     .numExecutors(numExecutors)
                     .mode(mode)
                     .labelString(labels)
                     .launcher(launcher)
                     .retentionStrategy(new ComputeEngineRetentionStrategy(retentionTimeMinutes, oneShot))
-                    .launchTimeout(getLaunchTimeoutMillis())
+                    .launchTimeout(launchTimeoutSeconds)
                     .javaExecPath(javaExecPath)
                     .sshKeyCredential(sshKeyCredential)
                     .build();
@@ -350,9 +412,27 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
         }
     }
 
+    /**
+     * Agent.jar prefetch is only done by the generated startup script, so it does not apply to
+     * inbound agents, instances created from a template or startup scripts run by an interpreter
+     * other than a shell.
+     */
+    private boolean isAgentJarPrefetchApplicable() {
+        return prefetchAgentJar
+                && inboundAgentConfiguration == null
+                && StringUtils.isEmpty(template)
+                && AgentStartupScripts.canPrepend(startupScript, windowsConfiguration != null)
+                && !Strings.isNullOrEmpty(Jenkins.get().getRootUrl());
+    }
+
+    private String defaultRemoteFs() {
+        return windowsConfiguration != null ? "C:\\" : "/tmp";
+    }
+
     /** Initializes transient properties */
     protected Object readResolve() {
         labelSet = Label.parse(labels);
+        prototype = null;
         if (externalAddress != null) {
             this.networkInterfaceIpStackMode = new NetworkInterfaceSingleStack(externalAddress);
             this.externalAddress = null;
@@ -361,13 +441,18 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
     }
 
     public Instance instance() throws IOException {
-        Instance instance = new Instance();
+        boolean fromTemplate = StringUtils.isNotEmpty(template);
+        Instance instance = fromTemplate
+                ? new Instance().setDescription(description).setZone(nameFromSelfLink(zone))
+                : prototype().clone();
         instance.setName(uniqueName());
-        instance.setDescription(description);
-        instance.setZone(nameFromSelfLink(zone));
         instance.setMetadata(newMetadata());
 
-        if (windowsConfiguration == null) {
+        if (inboundAgentConfiguration != null) {
+            log.info("User selected to launch an inbound agent, skipping ssh key configuration");
+            sshKeyCredential = null;
+            configureInboundAgent(instance);
+        } else if (windowsConfiguration == null) {
             if (sshConfiguration != null) {
                 log.info("User selected to use a custom ssh private key");
                 sshKeyCredential =
@@ -378,9 +463,8 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             }
         }
 
-        if (StringUtils.isNotEmpty(template)) {
-            InstanceTemplate instanceTemplate =
-                    cloud.getClient().getTemplate(nameFromSelfLink(cloud.getProjectId()), nameFromSelfLink(template));
+        if (fromTemplate) {
+            InstanceTemplate instanceTemplate = instanceTemplate();
             /* Since we have to set the metadata to include the autogenerated SSH keypair,
             we need to ensure we include metadata properties which might be set in the template. */
             if (instanceTemplate.getProperties() != null
@@ -402,23 +486,56 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
         } else {
             configureStartupScript(instance);
             instance.setLabels(googleLabels);
-            instance.setMachineType(stripSelfLinkPrefix(machineType));
-            instance.setTags(tags());
-            instance.setScheduling(scheduling());
-            instance.setDisks(disks());
-            instance.setGuestAccelerators(accelerators());
-            instance.setNetworkInterfaces(networkInterfaces());
-            instance.setServiceAccounts(serviceAccounts());
-
-            // optional
-            if (notNullOrEmpty(minCpuPlatform)) {
-                instance.setMinCpuPlatform(minCpuPlatform);
-            }
         }
 
         return instance;
     }
 
+    /**
+     * Returns the parts of an instance that do not change between provisions. Built on first use
+     * after the configuration is loaded or saved. Must not be modified, callers work on a clone.
+     *
+     * @return The instance prototype.
+     */
+    Instance prototype() {
+        Instance result = prototype;
+        if (result == null) {
+            result = buildPrototype();
+            prototype = result;
+        }
+        return result;
+    }
+
+    Instance buildPrototype() {
+        Instance result = new Instance();
+        result.setDescription(description);
+        result.setZone(nameFromSelfLink(zone));
+        result.setMachineType(stripSelfLinkPrefix(machineType));
+        result.setTags(tags());
+        result.setScheduling(scheduling());
+        result.setDisks(disks());
+        result.setGuestAccelerators(accelerators());
+        result.setNetworkInterfaces(networkInterfaces());
+        result.setServiceAccounts(serviceAccounts());
+
+        // optional
+        if (notNullOrEmpty(minCpuPlatform)) {
+            result.setMinCpuPlatform(minCpuPlatform);
+        }
+        return result;
+    }
+
+    private InstanceTemplate instanceTemplate() throws IOException {
+        String projectId = nameFromSelfLink(cloud.getProjectId());
+        String templateName = nameFromSelfLink(template);
+        InstanceTemplateCache cache = cloud.getTemplateCache();
+        if (cache == null) {
+            return ApiRateLimiter.withPriority(
+                    Priority.PROVISIONING, () -> cloud.getClient().getTemplate(projectId, templateName));
+        }
+        return cache.get(projectId, templateName);
+    }
+
     private String uniqueName() {
         char[][] pairs = {{'a', 'z'}, {'0', '9'}};
         RandomStringGenerator generator =
@@ -449,7 +566,7 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
      * @return autogenerated ssh key pair
      */
     private GoogleKeyPair configureSSHKeyPair(Instance instance, String sshUser) {
-        GoogleKeyPair sshKeyPair = GoogleKeyPair.generate(sshUser);
+        GoogleKeyPair sshKeyPair = GoogleKeyPair.fromPool(sshUser, sshKeyAlgorithm);
         instance.getMetadata()
                 .getItems()
                 .add(new Metadata.Items().setKey(SSH_METADATA_KEY).setValue(sshKeyPair.getPublicKey()));
@@ -468,17 +585,58 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
         return sshPrivateKey;
     }
 
+    /**
+     * Called when user selects to launch an inbound agent. Adds the controller URL and the agent
+     * secret to the instance metadata so the startup script can connect the agent.
+     *
+     * @param instance current instance object
+     * @throws IOException if no URL is available for the agent to connect to
+     */
+    private void configureInboundAgent(Instance instance) throws IOException {
+        String jenkinsUrl = inboundAgentConfiguration.getJenkinsUrlOrDefault();
+        if (jenkinsUrl == null) {
+            throw new IOException("No Jenkins URL configured for inbound agents and the Jenkins root URL is not set");
+        }
+        List<Metadata.Items> items = instance.getMetadata().getItems();
+        items.add(new Metadata.Items()
+                .setKey(AgentStartupScripts.METADATA_JENKINS_URL_KEY)
+                .setValue(jenkinsUrl));
+        items.add(new Metadata.Items()
+                .setKey(AgentStartupScripts.METADATA_AGENT_SECRET_KEY)
+                .setValue(JnlpAgentReceiver.SLAVE_SECRET.mac(instance.getName())));
+    }
+
     private void configureStartupScript(Instance instance) {
-        if (notNullOrEmpty(startupScript)) {
+        String script = startupScript;
+        if (inboundAgentConfiguration != null) {
+            String workDir = Strings.isNullOrEmpty(remoteFs) ? defaultRemoteFs() : remoteFs;
+            String javaPath = Strings.isNullOrEmpty(javaExecPath) ? "java" : javaExecPath;
+            String user = Strings.isNullOrEmpty(runAsUser) ? DEFAULT_RUN_AS_USER : runAsUser;
+            String snippet = windowsConfiguration != null
+                    ? AgentStartupScripts.inboundWindows(inboundAgentConfiguration, workDir, javaPath)
+                    : AgentStartupScripts.inboundLinux(inboundAgentConfiguration, user, workDir, javaPath);
+            script = AgentStartupScripts.append(startupScript, snippet, windowsConfiguration != null);
+        } else if (isAgentJarPrefetchApplicable()) {
+            instance.getMetadata()
+                    .getItems()
+                    .add(new Metadata.Items()
+                            .setKey(AgentStartupScripts.METADATA_JENKINS_URL_KEY)
+                            .setValue(Jenkins.get().getRootUrl()));
+            String snippet = windowsConfiguration != null
+                    ? AgentStartupScripts.agentJarPrefetchWindows()
+                    : AgentStartupScripts.agentJarPrefetchLinux();
+            script = AgentStartupScripts.prepend(startupScript, snippet, windowsConfiguration != null);
+        }
+        if (notNullOrEmpty(script)) {
             List<Metadata.Items> items = instance.getMetadata().getItems();
             if (windowsConfiguration != null) {
                 items.add(new Metadata.Items()
                         .setKey(METADATA_WINDOWS_STARTUP_SCRIPT_KEY)
-                        .setValue(startupScript));
+                        .setValue(script));
             } else {
                 items.add(new Metadata.Items()
                         .setKey(METADATA_LINUX_STARTUP_SCRIPT_KEY)
-                        .setValue(startupScript));
+                        .setValue(script));
             }
         }
     }
@@ -495,6 +653,12 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
     private Scheduling scheduling() {
         Scheduling scheduling = new Scheduling();
         scheduling.setPreemptible(preemptible);
+        long maxRunDurationSeconds = getMaxRunDurationSeconds();
+        if (maxRunDurationSeconds > 0) {
+            // Set by name, these fields are newer than the revision of the Compute API client.
+            scheduling.set(MAX_RUN_DURATION_KEY, new Duration().setSeconds(maxRunDurationSeconds));
+            scheduling.set(INSTANCE_TERMINATION_ACTION_KEY, "DELETE");
+        }
         return scheduling;
     }
 
@@ -505,7 +669,9 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
         boot.setInitializeParams(new AttachedDiskInitializeParams()
                 .setDiskSizeGb(bootDiskSizeGb)
                 .setDiskType(bootDiskType)
-                .setSourceImage(bootDiskSourceImageName));
+                .setSourceImage(bootDiskSourceImageName)
+                // Labeled like the instance, so left over disks can be found.
+                .setLabels(googleLabels == null ? null : new HashMap<>(googleLabels)));
 
         List<AttachedDisk> disks = new ArrayList<>();
         disks.add(boot);
@@ -557,6 +723,7 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
 
         public static void setComputeClient(ComputeClient client) {
             computeClient = client;
+            LookupCache.get().invalidateAll();
         }
 
         public static String defaultRetentionTimeMinutes() {
@@ -567,6 +734,10 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             return DEFAULT_LAUNCH_TIMEOUT_SECONDS.toString();
         }
 
+        public static String defaultMaxRunDurationMinutes() {
+            return DEFAULT_MAX_RUN_DURATION_MINUTES.toString();
+        }
+
         public static String defaultBootDiskSizeGb() {
             return DEFAULT_BOOT_DISK_SIZE_GB.toString();
         }
@@ -594,12 +765,11 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             return new AutofilledNetworkConfiguration();
         }
 
-        private static ComputeClient computeClient(Jenkins context, String credentialsId) throws IOException {
+        private static ComputeClient computeClient(String credentialsId) throws IOException {
             if (computeClient != null) {
                 return computeClient;
             }
-            ClientFactory clientFactory = ClientUtil.getClientFactory(context, credentialsId);
-            return clientFactory.computeClient();
+            return ComputeClientPool.getClient(credentialsId);
         }
 
         @Override
@@ -674,8 +844,10 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             ListBoxModel items = new ListBoxModel();
             items.add("");
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<Region> regions = compute.listRegions(projectId);
+                List<Region> regions = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "regions", projectId),
+                                () -> computeClient(credentialsId).listRegions(projectId));
 
                 for (Region r : regions) {
                     items.add(r.getName(), r.getSelfLink());
@@ -696,8 +868,10 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             ListBoxModel items = new ListBoxModel();
             items.add("");
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<InstanceTemplate> instanceTemplates = compute.listTemplates(projectId);
+                List<InstanceTemplate> instanceTemplates = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "templates", projectId),
+                                () -> computeClient(credentialsId).listTemplates(projectId));
 
                 for (InstanceTemplate instanceTemplate : instanceTemplates) {
                     items.add(instanceTemplate.getName(), instanceTemplate.getSelfLink());
@@ -726,8 +900,10 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             ListBoxModel items = new ListBoxModel();
             items.add("");
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<Zone> zones = compute.listZones(projectId, region);
+                List<Zone> zones = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "zones", projectId, region),
+                                () -> computeClient(credentialsId).listZones(projectId, region));
 
                 for (Zone z : zones) {
                     items.add(z.getName(), z.getSelfLink());
@@ -759,8 +935,10 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             ListBoxModel items = new ListBoxModel();
             items.add("");
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<MachineType> machineTypes = compute.listMachineTypes(projectId, zone);
+                List<MachineType> machineTypes = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "machineTypes", projectId, zone),
+                                () -> computeClient(credentialsId).listMachineTypes(projectId, zone));
 
                 for (MachineType m : machineTypes) {
                     items.add(m.getName(), m.getSelfLink());
@@ -792,8 +970,10 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             ListBoxModel items = new ListBoxModel();
             items.add("");
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<String> cpuPlatforms = compute.listCpuPlatforms(projectId, zone);
+                List<String> cpuPlatforms = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "cpuPlatforms", projectId, zone),
+                                () -> computeClient(credentialsId).listCpuPlatforms(projectId, zone));
 
                 for (String cpuPlatform : cpuPlatforms) {
                     items.add(cpuPlatform);
@@ -817,8 +997,10 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             checkPermissions(Jenkins.get(), Jenkins.ADMINISTER);
             ListBoxModel items = new ListBoxModel();
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<DiskType> diskTypes = compute.listBootDiskTypes(projectId, zone);
+                List<DiskType> diskTypes = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "bootDiskTypes", projectId, zone),
+                                () -> computeClient(credentialsId).listBootDiskTypes(projectId, zone));
 
                 for (DiskType dt : diskTypes) {
                     items.add(dt.getName(), dt.getSelfLink());
@@ -862,8 +1044,10 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             ListBoxModel items = new ListBoxModel();
             items.add("");
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
-                List<Image> images = compute.listImages(projectId);
+                List<Image> images = LookupCache.get()
+                        .list(
+                                LookupCache.key(credentialsId, "images", projectId),
+                                () -> computeClient(credentialsId).listImages(projectId));
 
                 for (Image i : images) {
                     items.add(i.getName(), i.getSelfLink());
@@ -897,7 +1081,7 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
                     || Strings.isNullOrEmpty(imageName)) return FormValidation.ok();
 
             try {
-                ComputeClient compute = computeClient(context, credentialsId);
+                ComputeClient compute = computeClient(credentialsId);
                 Image i = compute.getImage(nameFromSelfLink(projectId), nameFromSelfLink(imageName));
                 if (i == null) return FormValidation.error("Could not find image " + imageName);
                 Long bootDiskSizeGb = Long.parseLong(value);
@@ -943,6 +1127,13 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckMaxRunDurationMinutesStr(@QueryParameter String value) {
+            if (Strings.isNullOrEmpty(value)) {
+                return FormValidation.ok();
+            }
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         public List<NetworkInterfaceIpStackMode.Descriptor> getNetworkInterfaceIpStackModeDescriptors() {
             return ExtensionList.lookup(NetworkInterfaceIpStackMode.Descriptor.class);
         }
@@ -964,6 +1155,11 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             instanceConfiguration.setRunAsUser(this.runAsUser);
             instanceConfiguration.setWindowsConfiguration(this.windowsConfiguration);
             instanceConfiguration.setSshConfiguration(this.sshConfiguration);
+            instanceConfiguration.setSshKeyAlgorithm(this.sshKeyAlgorithm);
+            instanceConfiguration.setInboundAgentConfiguration(this.inboundAgentConfiguration);
+            instanceConfiguration.setLaunchRetryPolicy(this.launchRetryPolicy);
+            instanceConfiguration.setBastionConfiguration(this.bastionConfiguration);
+            instanceConfiguration.setRetentionPolicy(this.retentionPolicy);
             instanceConfiguration.setBootDiskType(this.bootDiskType);
             instanceConfiguration.setBootDiskAutoDelete(this.bootDiskAutoDelete);
             instanceConfiguration.setBootDiskSourceImageName(this.bootDiskSourceImageName);
@@ -972,6 +1168,7 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             instanceConfiguration.setNetworkInterfaceIpStackMode(this.networkInterfaceIpStackMode);
             instanceConfiguration.setUseInternalAddress(this.useInternalAddress);
             instanceConfiguration.setIgnoreProxy(this.ignoreProxy);
+            instanceConfiguration.setPrefetchAgentJar(this.prefetchAgentJar);
             instanceConfiguration.setNetworkTags(this.networkTags);
             instanceConfiguration.setServiceAccountEmail(this.serviceAccountEmail);
             instanceConfiguration.setMode(this.mode);
@@ -979,6 +1176,7 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             instanceConfiguration.setRetentionTimeMinutesStr(this.retentionTimeMinutesStr);
             instanceConfiguration.setLaunchTimeoutSecondsStr(this.launchTimeoutSecondsStr);
             instanceConfiguration.setBootDiskSizeGbStr(this.bootDiskSizeGbStr);
+            instanceConfiguration.setMaxRunDurationMinutesStr(this.maxRunDurationMinutesStr);
             instanceConfiguration.setOneShot(this.oneShot);
             instanceConfiguration.setTemplate(this.template);
             instanceConfiguration.setCreateSnapshot(this.createSnapshot);
@@ -1009,8 +1207,16 @@ public class InstanceConfiguration implements Describable<InstanceConfiguration>
             throw new NotImplementedException();
         }
 
+        private Builder maxRunDurationMinutes(Integer maxRunDurationMinutes) {
+            throw new NotImplementedException();
+        }
+
         private Builder labelSet(Set<LabelAtom> labelSet) {
             throw new NotImplementedException();
         }
+
+        private Builder prototype(Instance prototype) {
+            throw new NotImplementedException();
+        }
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.api.services.compute.model.InstanceTemplate;
+import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
+import com.google.jenkins.plugins.computeengine.client.ApiRateLimiter;
+import com.google.jenkins.plugins.computeengine.client.ApiRateLimiter.Priority;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instance templates of a cloud, keyed by project and template name, so that provisioning a burst
+ * of agents from a template does not fetch the same template for each agent. Once an entry is older
+ * than the TTL it is still served while it is refreshed in the background, on the executor of the
+ * cloud since the fetch blocks. A failed refresh keeps the last good copy and is retried after
+ * {@link #RETRY_MILLIS}.
+ */
+final class InstanceTemplateCache {
+    private static final Logger LOGGER = Logger.getLogger(InstanceTemplateCache.class.getName());
+    static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Supplier<ComputeClient> client;
+    private final Executor executor;
+    private final long ttlMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Entry>> loads = new ConcurrentHashMap<>();
+
+    /**
+     * @param client Supplies the client used to fetch templates.
+     * @param executor Runs the background refreshes.
+     * @param ttlSeconds How long a fetched template is used before it is refreshed, 0 disables
+     *     caching.
+     */
+    InstanceTemplateCache(Supplier<ComputeClient> client, Executor executor, int ttlSeconds) {
+        this.client = client;
+        this.executor = executor;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(0, ttlSeconds));
+    }
+
+    /**
+     * Gets an instance template, from the cache if possible.
+     *
+     * @param projectId The project of the template.
+     * @param templateName The name of the template.
+     * @return A copy of the template that the caller may modify.
+     * @throws IOException if the template is not cached and could not be fetched.
+     */
+    InstanceTemplate get(String projectId, String templateName) throws IOException {
+        if (ttlMillis == 0) {
+            return fetch(projectId, templateName);
+        }
+        String key = projectId + "/" + templateName;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = load(key, projectId, templateName);
+        } else if (System.currentTimeMillis() >= entry.refreshAtMillis) {
+            refresh(key, projectId, templateName, entry);
+        }
+        return entry.template.clone();
+    }
+
+    /** Drops all cached templates. */
+    void invalidateAll() {
+        entries.clear();
+    }
+
+    private Entry load(String key, String projectId, String templateName) throws IOException {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> loading = loads.putIfAbsent(key, mine);
+        if (loading == null) {
+            // Concurrent callers for the same template wait for this fetch.
+            try {
+                Entry entry = new Entry(fetch(projectId, templateName));
+                entries.put(key, entry);
+                mine.complete(entry);
+                return entry;
+            } catch (IOException | RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                loads.remove(key, mine);
+            }
+        }
+        try {
+            return loading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching instance template " + templateName);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+            throw new IOException("Failed to fetch instance template " + templateName, e.getCause());
+        }
+    }
+
+    private void refresh(String key, String projectId, String templateName, Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    entries.replace(key, entry, new Entry(fetch(projectId, templateName)));
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(
+                            Level.WARNING,
+                            String.format(
+                                    "Failed to refresh instance template %s, using the last fetched copy",
+                                    templateName),
+                            e);
+                    retryLater(entry);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "No thread available to refresh instance template {0}", templateName);
+            retryLater(entry);
+        }
+    }
+
+    private void retryLater(Entry entry) {
+        entry.refreshAtMillis = System.currentTimeMillis() + RETRY_MILLIS;
+        entry.refreshing.set(false);
+    }
+
+    private InstanceTemplate fetch(String projectId, String templateName) throws IOException {
+        // Templates are only read to provision instances, also when refreshed in the background.
+        return ApiRateLimiter.withPriority(
+                Priority.PROVISIONING, () -> client.get().getTemplate(projectId, templateName));
+    }
+
+    private final class Entry {
+        private final InstanceTemplate template;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile long refreshAtMillis;
+
+        private Entry(InstanceTemplate template) {
+            this.template = template;
+            this.refreshAtMillis = System.currentTimeMillis() + ttlMillis;
+        }
+    }
+}
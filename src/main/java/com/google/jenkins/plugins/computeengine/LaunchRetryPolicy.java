@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import hudson.Extension;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+import jenkins.model.Jenkins;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Timing of the retries done while launching an agent over SSH. Waits between attempts grow
+ * exponentially with random jitter, each phase can have its own time budget and the launch timeout
+ * of the instance configuration is the overall deadline for all phases.
+ */
+@Getter
+@Setter(onMethod = @__(@DataBoundSetter))
+@ToString
+@EqualsAndHashCode
+public class LaunchRetryPolicy implements Describable<LaunchRetryPolicy>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+    public static final int DEFAULT_MAX_BACKOFF_MILLIS = 15000;
+    public static final double DEFAULT_BACKOFF_MULTIPLIER = 2.0;
+    public static final double DEFAULT_JITTER_FACTOR = 0.2;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_AUTH_ATTEMPTS = 30;
+
+    private int initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private int maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private double backoffMultiplier = DEFAULT_BACKOFF_MULTIPLIER;
+    private double jitterFactor = DEFAULT_JITTER_FACTOR;
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    // Phase budgets in seconds, 0 means the phase is only limited by the launch timeout.
+    private int connectBudgetSeconds;
+    private int authBudgetSeconds;
+    private int authAttempts = DEFAULT_AUTH_ATTEMPTS;
+
+    @DataBoundConstructor
+    public LaunchRetryPolicy() {}
+
+    /**
+     * Starts tracking the retries of a launch phase.
+     *
+     * @param phaseBudgetSeconds The time budget of the phase, 0 for no budget.
+     * @param deadlineMillis The overall launch deadline as epoch millis.
+     * @return The backoff for the phase.
+     */
+    public Backoff backoff(int phaseBudgetSeconds, long deadlineMillis) {
+        long phaseDeadline = deadlineMillis;
+        if (phaseBudgetSeconds > 0) {
+            phaseDeadline = Math.min(deadlineMillis, System.currentTimeMillis() + phaseBudgetSeconds * 1000L);
+        }
+        return new Backoff(phaseDeadline);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Descriptor<LaunchRetryPolicy> getDescriptor() {
+        return Jenkins.get().getDescriptor(LaunchRetryPolicy.class);
+    }
+
+    /** Retry state of a single launch phase. Not thread safe. */
+    public final class Backoff {
+        private final long deadlineMillis;
+        private long nextBackoffMillis = Math.max(1, initialBackoffMillis);
+
+        private Backoff(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        /** @return Milliseconds left before the phase deadline, never negative. */
+        public long remainingMillis() {
+            return Math.max(0, deadlineMillis - System.currentTimeMillis());
+        }
+
+        /** @return Whether the phase deadline has passed. */
+        public boolean isExpired() {
+            return remainingMillis() == 0;
+        }
+
+        /** @return The timeout for the next connection attempt, bounded by the phase deadline. */
+        public int connectTimeoutMillis() {
+            return (int) Math.max(1, Math.min(connectTimeoutMillis, remainingMillis()));
+        }
+
+        /** @return The wait before the next attempt, including jitter. Advances the backoff. */
+        long nextBackoffMillis() {
+            long backoff = nextBackoffMillis;
+            nextBackoffMillis = (long) Math.min((double) Math.max(1, maxBackoffMillis), backoff * backoffMultiplier);
+            if (jitterFactor > 0) {
+                double jitter = ThreadLocalRandom.current().nextDouble(-jitterFactor, jitterFactor);
+                backoff = Math.round(backoff * (1 + jitter));
+            }
+            return Math.max(0, backoff);
+        }
+
+        /**
+         * Waits before the next attempt.
+         *
+         * @return false if the phase deadline has passed and no further attempt should be made.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        public boolean awaitNextAttempt() throws InterruptedException {
+            long remaining = remainingMillis();
+            if (remaining == 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(nextBackoffMillis(), remaining));
+            return !isExpired();
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<LaunchRetryPolicy> {
+        public FormValidation doCheckInitialBackoffMillis(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckMaxBackoffMillis(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckBackoffMultiplier(@QueryParameter String value) {
+            try {
+                if (Double.parseDouble(value) < 1) {
+                    return FormValidation.error("The multiplier must be at least 1");
+                }
+            } catch (NumberFormatException nfe) {
+                return FormValidation.error("Not a number");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckJitterFactor(@QueryParameter String value) {
+            try {
+                double jitter = Double.parseDouble(value);
+                if (jitter < 0 || jitter >= 1) {
+                    return FormValidation.error("The jitter factor must be between 0 and 1");
+                }
+            } catch (NumberFormatException nfe) {
+                return FormValidation.error("Not a number");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckConnectTimeoutMillis(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckConnectBudgetSeconds(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckAuthBudgetSeconds(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckAuthAttempts(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide cache of the lists shown by the descriptor doFill*Items methods, such as regions,
+ * zones, machine types and images. Rendering the configuration page of a cloud with many instance
+ * configurations otherwise sends the same list requests once per configuration. Entries are keyed
+ * by credentials, list kind and scope (project, region, zone...) and expire after {@link
+ * #TTL_MILLIS}. Concurrent lookups of the same key share a single request. Failed lookups are not
+ * cached.
+ */
+final class LookupCache {
+    static final long TTL_MILLIS =
+            TimeUnit.SECONDS.toMillis(Integer.getInteger(LookupCache.class.getName() + ".ttlSeconds", 600));
+
+    private static final LookupCache INSTANCE = new LookupCache(TTL_MILLIS);
+
+    private final long ttlMillis;
+    private final ConcurrentMap<List<String>, CompletableFuture<Entry>> entries = new ConcurrentHashMap<>();
+
+    LookupCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    static LookupCache get() {
+        return INSTANCE;
+    }
+
+    /** Fetches a list, for use with {@link #list(List, Loader)}. */
+    @FunctionalInterface
+    interface Loader<T> {
+        List<T> load() throws IOException;
+    }
+
+    /**
+     * @param credentialsId The credentials the list is fetched with.
+     * @param kind The kind of list, e.g. {@code zones}.
+     * @param scope The parameters of the list request, e.g. project and region.
+     * @return The cache key.
+     */
+    static List<String> key(String credentialsId, String kind, String... scope) {
+        ImmutableList.Builder<String> key = ImmutableList.builder();
+        key.add(Strings.nullToEmpty(credentialsId)).add(kind);
+        for (String s : scope) {
+            key.add(Strings.nullToEmpty(s));
+        }
+        return key.build();
+    }
+
+    /**
+     * Gets a list from the cache, loading it if missing or expired.
+     *
+     * @param key The key, see {@link #key(String, String, String...)}.
+     * @param loader Fetches the list, only called if no other lookup of the key is in flight.
+     * @return The list, shared between callers and not to be modified.
+     * @throws IOException if the list could not be fetched.
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> list(List<String> key, Loader<T> loader) throws IOException {
+        while (true) {
+            CompletableFuture<Entry> current = entries.get(key);
+            if (current != null && !isExpired(current)) {
+                return (List<T>) await(current).value;
+            }
+            CompletableFuture<Entry> mine = new CompletableFuture<>();
+            boolean won = current == null
+                    ? entries.putIfAbsent(key, mine) == null
+                    : entries.replace(key, current, mine);
+            if (!won) {
+                // Another lookup started loading this key first, wait for it instead.
+                continue;
+            }
+            try {
+                List<T> value = loader.load();
+                mine.complete(new Entry(value, System.currentTimeMillis() + ttlMillis));
+                return value;
+            } catch (IOException | RuntimeException e) {
+                entries.remove(key, mine);
+                mine.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    /** Drops all cached lists fetched with the given credentials. */
+    void invalidate(String credentialsId) {
+        String id = Strings.nullToEmpty(credentialsId);
+        entries.keySet().removeIf(key -> key.get(0).equals(id));
+    }
+
+    /** Drops all cached lists. */
+    void invalidateAll() {
+        entries.clear();
+    }
+
+    private static boolean isExpired(CompletableFuture<Entry> future) {
+        return future.isDone()
+                && !future.isCompletedExceptionally()
+                && future.join().expiresAtMillis <= System.currentTimeMillis();
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a lookup");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static final class Entry {
+        private final List<?> value;
+        private final long expiresAtMillis;
+
+        private Entry(List<?> value, long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
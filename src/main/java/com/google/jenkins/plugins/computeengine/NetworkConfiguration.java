@@ -16,9 +16,8 @@
 
 package com.google.jenkins.plugins.computeengine;
 
-import com.google.cloud.graphite.platforms.plugin.client.ClientFactory;
 import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
-import com.google.jenkins.plugins.computeengine.client.ClientUtil;
+import com.google.jenkins.plugins.computeengine.client.ComputeClientPool;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
 import java.io.IOException;
@@ -52,14 +51,20 @@ public abstract class NetworkConfiguration implements Describable<NetworkConfigu
 
         public static void setComputeClient(ComputeClient client) {
             computeClient = client;
+            LookupCache.get().invalidateAll();
         }
 
-        public static ComputeClient computeClient(Jenkins context, String credentialsId) throws IOException {
+        /**
+         * @param credentialsId The ID of the credentials to use, looked up in the Jenkins root
+         *     context like all pooled clients.
+         * @return The client used by the lookups of the network fields.
+         * @throws IOException if the client could not be created.
+         */
+        public static ComputeClient computeClient(String credentialsId) throws IOException {
             if (computeClient != null) {
                 return computeClient;
             }
-            ClientFactory clientFactory = ClientUtil.getClientFactory(context, credentialsId);
-            return clientFactory.computeClient();
+            return ComputeClientPool.getClient(credentialsId);
         }
 
         public abstract String getDisplayName();
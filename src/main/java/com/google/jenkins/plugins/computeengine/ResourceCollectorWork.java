@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.compute.model.Disk;
+import com.google.api.services.compute.model.Snapshot;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+
+/**
+ * Periodically deletes the snapshots and disks left over by the agents of each cloud, following the
+ * {@link RetentionPolicy} of their instance configuration. They are found by the {@link
+ * ComputeEngineCloud#CLOUD_ID_LABEL_KEY} label of their cloud and matched to their configuration by
+ * the {@link ComputeEngineCloud#CONFIG_LABEL_KEY} label. Unattached disks of configurations that
+ * delete boot disks on termination are leaks and are deleted after {@link
+ * #ORPHANED_DISK_GRACE_MILLIS} regardless of the retention policy. Resources of configurations that
+ * no longer exist are kept. Deletes are sent in batches.
+ */
+@Extension
+@Symbol("computeEngineResourceCollectorWork")
+public class ResourceCollectorWork extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(ResourceCollectorWork.class.getName());
+
+    static final long RECURRENCE_PERIOD_MINUTES =
+            Integer.getInteger(ResourceCollectorWork.class.getName() + ".recurrencePeriodMinutes", 60);
+    static final int MAX_DELETES_PER_RUN =
+            Integer.getInteger(ResourceCollectorWork.class.getName() + ".maxDeletesPerRun", 500);
+    static final long ORPHANED_DISK_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final String SNAPSHOT_FIELDS = "name,creationTimestamp,labels";
+    static final String DISK_FIELDS = "name,zone,creationTimestamp,labels,users";
+
+    public ResourceCollectorWork() {
+        super("Compute Engine resource collector");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(RECURRENCE_PERIOD_MINUTES);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void execute(TaskListener listener) {
+        for (ComputeEngineCloud cloud : Jenkins.get().clouds.getAll(ComputeEngineCloud.class)) {
+            try {
+                collect(cloud, System.currentTimeMillis());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to collect left over resources of cloud " + cloud.getCloudName(), e);
+            }
+        }
+    }
+
+    void collect(ComputeEngineCloud cloud, long nowMillis) throws IOException {
+        Map<String, InstanceConfiguration> configurations = new HashMap<>();
+        if (cloud.getConfigurations() != null) {
+            for (InstanceConfiguration configuration : cloud.getConfigurations()) {
+                configurations.put(configuration.getNamePrefix(), configuration);
+            }
+        }
+
+        Map<String, List<Snapshot>> snapshotsByConfiguration =
+                groupByConfiguration(cloud.listCloudSnapshots(SNAPSHOT_FIELDS), Snapshot::getLabels);
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Map.Entry<String, List<Snapshot>> group : snapshotsByConfiguration.entrySet()) {
+            InstanceConfiguration configuration = configurations.get(group.getKey());
+            if (configuration != null && configuration.getRetentionPolicy() != null) {
+                snapshots.addAll(configuration
+                        .getRetentionPolicy()
+                        .expired(group.getValue(), s -> creationMillis(s.getCreationTimestamp()), nowMillis));
+            }
+        }
+
+        List<Disk> unattached = cloud.listCloudDisks(DISK_FIELDS).stream()
+                .filter(disk -> disk.getUsers() == null || disk.getUsers().isEmpty())
+                .filter(disk -> nowMillis - creationMillis(disk.getCreationTimestamp()) > ORPHANED_DISK_GRACE_MILLIS)
+                .filter(disk -> !cloud.isPendingRemoval(disk.getName()))
+                .collect(Collectors.toList());
+        List<Disk> disks = new ArrayList<>();
+        for (Map.Entry<String, List<Disk>> group : groupByConfiguration(unattached, Disk::getLabels).entrySet()) {
+            InstanceConfiguration configuration = configurations.get(group.getKey());
+            if (configuration == null) {
+                continue;
+            }
+            if (configuration.isBootDiskAutoDelete()) {
+                disks.addAll(group.getValue());
+            } else if (configuration.getRetentionPolicy() != null) {
+                disks.addAll(configuration
+                        .getRetentionPolicy()
+                        .expired(group.getValue(), d -> creationMillis(d.getCreationTimestamp()), nowMillis));
+            }
+        }
+
+        if (snapshots.isEmpty() && disks.isEmpty()) {
+            return;
+        }
+        ComputeBatcher batcher = cloud.getBatcher();
+        if (batcher == null) {
+            return;
+        }
+        String projectId = cloud.getProjectId();
+        List<CompletableFuture<?>> deletes = new ArrayList<>();
+        for (Snapshot snapshot : snapshots) {
+            if (deletes.size() >= MAX_DELETES_PER_RUN) {
+                break;
+            }
+            String name = snapshot.getName();
+            LOGGER.log(Level.INFO, "Deleting snapshot {0} of cloud {1}", new Object[] {name, cloud.getCloudName()});
+            deletes.add(logFailure(batcher.deleteSnapshotAsync(projectId, name), name));
+        }
+        for (Disk disk : disks) {
+            if (deletes.size() >= MAX_DELETES_PER_RUN) {
+                break;
+            }
+            String name = disk.getName();
+            String zone = disk.getZone().substring(disk.getZone().lastIndexOf('/') + 1);
+            LOGGER.log(Level.INFO, "Deleting disk {0} of cloud {1}", new Object[] {name, cloud.getCloudName()});
+            deletes.add(logFailure(batcher.deleteDiskAsync(projectId, zone, name), name));
+        }
+        CompletableFuture.allOf(deletes.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private static <T> Map<String, List<T>> groupByConfiguration(
+            List<T> resources, Function<T, Map<String, String>> labels) {
+        return resources.stream().collect(Collectors.groupingBy(resource -> {
+            Map<String, String> resourceLabels = labels.apply(resource);
+            return resourceLabels == null ? "" : resourceLabels.getOrDefault(ComputeEngineCloud.CONFIG_LABEL_KEY, "");
+        }));
+    }
+
+    private static CompletableFuture<?> logFailure(CompletableFuture<?> delete, String name) {
+        return delete.handle((operation, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.WARNING, "Failed to delete " + name, e);
+            }
+            return null;
+        });
+    }
+
+    /** @return The creation time as epoch millis, or now if it is not known so that it is kept. */
+    static long creationMillis(String creationTimestamp) {
+        if (creationTimestamp == null) {
+            return System.currentTimeMillis();
+        }
+        return DateTime.parseRfc3339(creationTimestamp).getValue();
+    }
+}
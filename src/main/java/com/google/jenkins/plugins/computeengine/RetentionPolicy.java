@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import hudson.Extension;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import jenkins.model.Jenkins;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * How long the snapshots and the disks left behind by the agents of an instance configuration are
+ * kept, see {@link ResourceCollectorWork}. Resources older than {@link #maxAgeDays} are deleted, as
+ * are all but the newest {@link #maxCount}. Either limit can be 0 for no limit.
+ */
+@Getter
+@Setter(onMethod = @__(@DataBoundSetter))
+@ToString
+@EqualsAndHashCode
+public class RetentionPolicy implements Describable<RetentionPolicy>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_MAX_AGE_DAYS = 7;
+    public static final int DEFAULT_MAX_COUNT = 0;
+
+    private int maxAgeDays = DEFAULT_MAX_AGE_DAYS;
+    private int maxCount = DEFAULT_MAX_COUNT;
+
+    @DataBoundConstructor
+    public RetentionPolicy() {}
+
+    /**
+     * Selects the resources that are not retained.
+     *
+     * @param resources The resources of one instance configuration.
+     * @param creationMillis The creation time of a resource as epoch millis.
+     * @param nowMillis The current time as epoch millis.
+     * @return The resources to delete, oldest first.
+     */
+    public <T> List<T> expired(List<T> resources, ToLongFunction<T> creationMillis, long nowMillis) {
+        List<T> newestFirst = new ArrayList<>(resources);
+        newestFirst.sort(Comparator.comparingLong(creationMillis).reversed());
+        long maxAgeMillis = TimeUnit.DAYS.toMillis(maxAgeDays);
+        List<T> result = new ArrayList<>();
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            T resource = newestFirst.get(i);
+            if ((maxCount > 0 && i >= maxCount)
+                    || (maxAgeDays > 0 && nowMillis - creationMillis.applyAsLong(resource) > maxAgeMillis)) {
+                result.add(resource);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Descriptor<RetentionPolicy> getDescriptor() {
+        return Jenkins.get().getDescriptor(RetentionPolicy.class);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<RetentionPolicy> {
+        public FormValidation doCheckMaxAgeDays(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxCount(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.compute.model.AttachedDisk;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Snapshot;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+
+/**
+ * Snapshots the disks of one-shot agents whose builds failed, without holding up the removal of the
+ * agents. Snapshots are started in the background, for at most {@link #MAX_CONCURRENT_SNAPSHOTS}
+ * instances of a cloud at a time, and an instance is handed to the {@link TerminationQueue} as soon
+ * as none of its snapshots needs the disks anymore, that is once they are uploading, ready or failed.
+ * The instance then no longer counts against the limit, even though its snapshots are followed until
+ * they are ready. If that takes longer than the timeout given for the instance, counted from when it
+ * was queued, it is deleted without waiting.
+ *
+ * <p>Snapshots are named after their disk and carry the labels of the instance, so that they can be
+ * found by the {@link ComputeEngineCloud#CLOUD_ID_LABEL_KEY} label of their cloud. Like {@link
+ * TerminationQueue}, there is one pipeline per cloud instance ID and project.
+ */
+public final class SnapshotPipeline {
+    private static final Logger LOGGER = Logger.getLogger(SnapshotPipeline.class.getName());
+
+    static final int MAX_CONCURRENT_SNAPSHOTS =
+            Integer.getInteger(SnapshotPipeline.class.getName() + ".maxConcurrentSnapshots", 4);
+    static final long POLL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    // Snapshots still not ready after this long are no longer followed, nor counted as running.
+    static final long MAX_SNAPSHOT_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final String INSTANCE_FIELDS = "disks(source),labels";
+    private static final String SNAPSHOT_FIELDS = "status";
+    private static final String CREATING = "CREATING";
+    private static final String FAILED = "FAILED";
+    private static final String READY = "READY";
+
+    private static final ConcurrentMap<String, SnapshotPipeline> PIPELINES = new ConcurrentHashMap<>();
+
+    private final String projectId;
+    private final int maxConcurrent;
+    private final long pollMillis;
+    private volatile Supplier<ComputeBatcher> batcher;
+    private volatile TerminationQueue terminations;
+    // Guarded by this, keyed by instance name
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final Deque<Job> waiting = new ArrayDeque<>();
+    private int running;
+    private long completed;
+    private long failed;
+
+    SnapshotPipeline(
+            String projectId,
+            Supplier<ComputeBatcher> batcher,
+            TerminationQueue terminations,
+            int maxConcurrent,
+            long pollMillis) {
+        this.projectId = projectId;
+        this.batcher = batcher;
+        this.terminations = terminations;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * @param cloud The cloud whose instances are snapshotted.
+     * @return The pipeline of the cloud, which uses the client and termination queue of the given
+     *     configuration of the cloud from now on.
+     */
+    static SnapshotPipeline forCloud(ComputeEngineCloud cloud) {
+        TerminationQueue terminations = cloud.getTerminationQueue();
+        SnapshotPipeline pipeline = PIPELINES.computeIfAbsent(
+                cloud.getInstanceId() + "/" + cloud.getProjectId(),
+                id -> new SnapshotPipeline(
+                        cloud.getProjectId(), cloud::getBatcher, terminations, MAX_CONCURRENT_SNAPSHOTS, POLL_MILLIS));
+        pipeline.batcher = cloud::getBatcher;
+        pipeline.terminations = terminations;
+        return pipeline;
+    }
+
+    /**
+     * Queues snapshots of the disks of an instance, which is deleted afterwards. Does nothing if the
+     * instance is already in the pipeline.
+     *
+     * @param zone The zone name of the instance.
+     * @param instanceName The name of the instance.
+     * @param timeoutMillis How long the instance may be kept for its snapshots, from now.
+     */
+    public void enqueue(String zone, String instanceName, long timeoutMillis) {
+        Job job = new Job(zone, instanceName, timeoutMillis);
+        synchronized (this) {
+            if (jobs.putIfAbsent(instanceName, job) != null) {
+                return;
+            }
+            waiting.addLast(job);
+        }
+        startWaiting();
+        Timer.get().schedule(() -> expireWaiting(job), timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** @return Whether the instance is waiting for its snapshots, and has not been handed over for deletion. */
+    public synchronized boolean isPending(String instanceName) {
+        Job job = jobs.get(instanceName);
+        return job != null && !job.handedOver;
+    }
+
+    /** @return The number of instances whose disks are being snapshotted. */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /** @return The number of instances waiting for other snapshots to complete before theirs start. */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /** @return The number of instances whose snapshots are all ready. */
+    public synchronized long getCompletedCount() {
+        return completed;
+    }
+
+    /** @return The number of instances with a snapshot that failed or did not complete in time. */
+    public synchronized long getFailedCount() {
+        return failed;
+    }
+
+    private void startWaiting() {
+        List<Job> started = new ArrayList<>();
+        synchronized (this) {
+            while (running < maxConcurrent && !waiting.isEmpty()) {
+                Job job = waiting.pollFirst();
+                job.holdsSlot = true;
+                running++;
+                started.add(job);
+            }
+        }
+        for (Job job : started) {
+            start(job);
+        }
+    }
+
+    private void start(Job job) {
+        job.startedMillis = System.currentTimeMillis();
+        ComputeBatcher b = batcher.get();
+        if (b == null) {
+            finish(job, new IllegalStateException("No client for project " + projectId));
+            return;
+        }
+        b.getInstanceAsync(projectId, job.zone, job.name, INSTANCE_FIELDS)
+                .thenCompose(instance -> createSnapshots(b, job, instance))
+                .whenComplete((result, e) -> {
+                    if (e != null) {
+                        finish(job, unwrap(e));
+                    } else {
+                        schedulePoll(job);
+                    }
+                });
+    }
+
+    /** Deletes an instance still waiting for other snapshots once its timeout passed. */
+    private void expireWaiting(Job job) {
+        synchronized (this) {
+            if (!waiting.remove(job)) {
+                return;
+            }
+            jobs.remove(job.name);
+            failed++;
+        }
+        LOGGER.log(Level.WARNING, "Deleting instance {0} without snapshots, it waited too long for others", job.name);
+        handOver(job);
+    }
+
+    private CompletableFuture<Void> createSnapshots(ComputeBatcher b, Job job, Instance instance) {
+        List<CompletableFuture<?>> operations = new ArrayList<>();
+        if (instance.getDisks() != null) {
+            for (AttachedDisk disk : instance.getDisks()) {
+                if (disk.getSource() == null) {
+                    continue;
+                }
+                String diskName = disk.getSource().substring(disk.getSource().lastIndexOf('/') + 1);
+                Snapshot snapshot = new Snapshot().setName(diskName).setLabels(instance.getLabels());
+                LOGGER.log(Level.INFO, "Creating snapshot {0} of instance {1}", new Object[] {diskName, job.name});
+                job.statuses.put(diskName, CREATING);
+                // A snapshot that could not be created does not hold up the others.
+                operations.add(b.createSnapshotAsync(projectId, job.zone, diskName, snapshot)
+                        .handle((operation, e) -> {
+                            if (e != null) {
+                                LOGGER.log(Level.WARNING, "Failed to create snapshot " + diskName, unwrap(e));
+                                job.statuses.put(diskName, FAILED);
+                            }
+                            return null;
+                        }));
+            }
+        }
+        return CompletableFuture.allOf(operations.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void schedulePoll(Job job) {
+        Timer.get().schedule(() -> poll(job), pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(Job job) {
+        ComputeBatcher b = batcher.get();
+        List<CompletableFuture<?>> reads = new ArrayList<>();
+        if (b != null) {
+            for (Map.Entry<String, String> status : new ArrayList<>(job.statuses.entrySet())) {
+                if (FAILED.equals(status.getValue()) || READY.equals(status.getValue())) {
+                    continue;
+                }
+                String name = status.getKey();
+                reads.add(b.getSnapshotAsync(projectId, name, SNAPSHOT_FIELDS).handle((snapshot, e) -> {
+                    if (snapshot != null) {
+                        job.statuses.put(name, snapshot.getStatus());
+                    } else if (!isNotFound(e)) {
+                        LOGGER.log(Level.FINE, "Failed to check snapshot " + name, e);
+                    }
+                    return null;
+                }));
+            }
+        }
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).whenComplete((result, e) -> update(job));
+    }
+
+    private void update(Job job) {
+        boolean diskReleased = true;
+        boolean ready = true;
+        String failedSnapshot = null;
+        for (Map.Entry<String, String> status : job.statuses.entrySet()) {
+            String value = status.getValue();
+            if (FAILED.equals(value)) {
+                failedSnapshot = status.getKey();
+            } else {
+                diskReleased &= "UPLOADING".equals(value) || READY.equals(value);
+                ready &= READY.equals(value);
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (diskReleased || now >= job.enqueuedMillis + job.timeoutMillis) {
+            if (!diskReleased) {
+                LOGGER.log(Level.WARNING, "Deleting instance {0} before its snapshots were taken", job.name);
+            }
+            handOver(job);
+        }
+        if (failedSnapshot != null && diskReleased) {
+            // Only once the other snapshots no longer need the disks.
+            finish(job, new IllegalStateException("Snapshot " + failedSnapshot + " failed"));
+        } else if (ready) {
+            finish(job, null);
+        } else if (now > job.startedMillis + MAX_SNAPSHOT_MILLIS) {
+            finish(job, new IllegalStateException("Snapshots not ready after " + MAX_SNAPSHOT_MILLIS + "ms"));
+        } else {
+            schedulePoll(job);
+        }
+    }
+
+    /** Queues the deletion of the instance, and lets the next waiting instance start. */
+    private void handOver(Job job) {
+        synchronized (this) {
+            if (job.handedOver) {
+                return;
+            }
+            job.handedOver = true;
+            if (job.holdsSlot) {
+                job.holdsSlot = false;
+                running--;
+            }
+        }
+        terminations.enqueue(job.zone, job.name);
+        startWaiting();
+    }
+
+    private void finish(Job job, Throwable failure) {
+        handOver(job);
+        synchronized (this) {
+            jobs.remove(job.name);
+            if (failure == null) {
+                completed++;
+            } else {
+                failed++;
+            }
+        }
+        if (failure != null) {
+            LOGGER.log(Level.WARNING, "Failed to snapshot instance " + job.name, failure);
+        } else {
+            LOGGER.log(Level.INFO, "Snapshots of instance {0} are ready", job.name);
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static boolean isNotFound(Throwable e) {
+        Throwable cause = unwrap(e);
+        return cause instanceof GoogleJsonResponseException
+                && ((GoogleJsonResponseException) cause).getStatusCode() == 404;
+    }
+
+    /** An instance to snapshot and the last known status of each of its snapshots. */
+    private static final class Job {
+        private final String zone;
+        private final String name;
+        private final long timeoutMillis;
+        private final Map<String, String> statuses = new ConcurrentHashMap<>();
+        private final long enqueuedMillis = System.currentTimeMillis();
+        private volatile long startedMillis;
+        // Guarded by the pipeline
+        private boolean holdsSlot;
+        private boolean handedOver;
+
+        private Job(String zone, String name, long timeoutMillis) {
+            this.zone = zone;
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.compute.model.Operation;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+
+/**
+ * Deletes the instances of the terminated agents of a cloud. Deletes are dispatched every {@link
+ * #DISPATCH_INTERVAL_MILLIS}, at most {@link #MAX_DELETES_PER_DISPATCH} at a time, through the
+ * {@link ComputeBatcher} so that they share batch requests and the rate limit of the project. Failed
+ * deletes are retried with exponential backoff up to {@link #MAX_ATTEMPTS} times and the delete
+ * operations are followed until they are done. Until then the instance is pending, and counts against
+ * the capacity of the cloud.
+ *
+ * <p>There is one queue per cloud {@link ComputeEngineCloud#getInstanceId() instance ID} and project, so pending
+ * deletes survive saving the configuration of the cloud. They are not persisted, instances left over by
+ * a restart are deleted by {@link CleanLostNodesWork}.
+ */
+public final class TerminationQueue {
+    private static final Logger LOGGER = Logger.getLogger(TerminationQueue.class.getName());
+
+    static final long DISPATCH_INTERVAL_MILLIS =
+            Integer.getInteger(TerminationQueue.class.getName() + ".dispatchIntervalMillis", 1000);
+    static final int MAX_DELETES_PER_DISPATCH =
+            Integer.getInteger(TerminationQueue.class.getName() + ".maxDeletesPerDispatch", 50);
+    static final int MAX_ATTEMPTS = Integer.getInteger(TerminationQueue.class.getName() + ".maxAttempts", 5);
+    static final long OPERATION_POLL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    static final long INITIAL_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final String OPERATION_FIELDS = "status,error";
+
+    private enum State {
+        QUEUED,
+        SENT,
+        DELETING,
+        POLLING
+    }
+
+    private static final ConcurrentMap<String, TerminationQueue> QUEUES = new ConcurrentHashMap<>();
+
+    private final String projectId;
+    private final long dispatchIntervalMillis;
+    private final long pollMillis;
+    private final long retryMillis;
+    private volatile Supplier<ComputeBatcher> batcher;
+    // Guarded by this, keyed by instance name
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private boolean dispatchScheduled;
+    private long completed;
+    private long failed;
+
+    /**
+     * @param projectId The project of the instances.
+     * @param batcher Supplies the batcher to send deletes with, may supply null if the client of the
+     *     cloud cannot be created.
+     */
+    TerminationQueue(String projectId, Supplier<ComputeBatcher> batcher) {
+        this(projectId, batcher, DISPATCH_INTERVAL_MILLIS, OPERATION_POLL_MILLIS, INITIAL_RETRY_MILLIS);
+    }
+
+    TerminationQueue(
+            String projectId,
+            Supplier<ComputeBatcher> batcher,
+            long dispatchIntervalMillis,
+            long pollMillis,
+            long retryMillis) {
+        this.projectId = projectId;
+        this.batcher = batcher;
+        this.dispatchIntervalMillis = dispatchIntervalMillis;
+        this.pollMillis = pollMillis;
+        this.retryMillis = retryMillis;
+    }
+
+    /**
+     * @param cloud The cloud whose instances are deleted.
+     * @return The queue of the cloud, which sends deletes with the client of the given configuration of
+     *     the cloud from now on.
+     */
+    static TerminationQueue forCloud(ComputeEngineCloud cloud) {
+        TerminationQueue queue = QUEUES.computeIfAbsent(
+                cloud.getInstanceId() + "/" + cloud.getProjectId(),
+                id -> new TerminationQueue(cloud.getProjectId(), cloud::getBatcher));
+        queue.batcher = cloud::getBatcher;
+        return queue;
+    }
+
+    /**
+     * Queues the deletion of an instance. Does nothing if it is already pending.
+     *
+     * @param zone The zone name of the instance.
+     * @param instanceName The name of the instance.
+     */
+    public synchronized void enqueue(String zone, String instanceName) {
+        if (entries.putIfAbsent(instanceName, new Entry(zone, instanceName)) == null) {
+            scheduleDispatch();
+        }
+    }
+
+    /** @return Whether the instance is queued or being deleted. */
+    public synchronized boolean isPending(String instanceName) {
+        return entries.containsKey(instanceName);
+    }
+
+    /** @return The number of instances queued or being deleted. */
+    public synchronized int getPendingCount() {
+        return entries.size();
+    }
+
+    /** @return The number of instances waiting for their delete to be sent. */
+    public synchronized int getQueuedCount() {
+        return (int) entries.values().stream().filter(e -> e.state == State.QUEUED).count();
+    }
+
+    /** @return The number of instances deleted since the cloud was configured. */
+    public synchronized long getCompletedCount() {
+        return completed;
+    }
+
+    /** @return The number of instances given up on after {@link #MAX_ATTEMPTS} failed deletes. */
+    public synchronized long getFailedCount() {
+        return failed;
+    }
+
+    /** Sends the deletes that are due and checks the delete operations that are due. */
+    void dispatch() {
+        List<Entry> deletes = new ArrayList<>();
+        List<Entry> polls = new ArrayList<>();
+        synchronized (this) {
+            dispatchScheduled = false;
+            long now = System.currentTimeMillis();
+            for (Entry entry : entries.values()) {
+                if (entry.nextMillis > now) {
+                    continue;
+                }
+                if (entry.state == State.QUEUED && deletes.size() < MAX_DELETES_PER_DISPATCH) {
+                    entry.state = State.SENT;
+                    deletes.add(entry);
+                } else if (entry.state == State.DELETING) {
+                    entry.state = State.POLLING;
+                    polls.add(entry);
+                }
+            }
+        }
+        try {
+            ComputeBatcher b = batcher.get();
+            if (b == null) {
+                throw new IllegalStateException("No client for project " + projectId);
+            }
+            for (Entry entry : deletes) {
+                b.terminateInstanceAsync(projectId, entry.zone, entry.name)
+                        .whenComplete((operation, e) -> onDeleteSent(entry, operation, e));
+            }
+            for (Entry entry : polls) {
+                b.getZoneOperationAsync(projectId, entry.zone, entry.operation, OPERATION_FIELDS)
+                        .whenComplete((operation, e) -> onOperationPolled(entry, operation, e));
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to dispatch instance deletes of project " + projectId, e);
+            synchronized (this) {
+                long next = System.currentTimeMillis() + retryMillis;
+                for (Entry entry : deletes) {
+                    entry.state = State.QUEUED;
+                    entry.nextMillis = next;
+                }
+                for (Entry entry : polls) {
+                    entry.state = State.DELETING;
+                    entry.nextMillis = next;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                scheduleDispatch();
+            }
+        }
+    }
+
+    private synchronized void onDeleteSent(Entry entry, Operation operation, Throwable e) {
+        if (e == null) {
+            entry.operation = operation.getName();
+            entry.state = State.DELETING;
+            entry.nextMillis = System.currentTimeMillis() + pollMillis;
+        } else if (isNotFound(e)) {
+            done(entry);
+        } else {
+            retry(entry, unwrap(e));
+        }
+    }
+
+    private synchronized void onOperationPolled(Entry entry, Operation operation, Throwable e) {
+        if (e == null && "DONE".equals(operation.getStatus())) {
+            if (operation.getError() != null && operation.getError().getErrors() != null) {
+                retry(entry, new IllegalStateException(operation.getError().toString()));
+            } else {
+                done(entry);
+            }
+            return;
+        }
+        if (e != null && isNotFound(e)) {
+            // Old operations are removed, the instance is assumed to be gone.
+            done(entry);
+            return;
+        }
+        if (e != null) {
+            LOGGER.log(Level.FINE, "Failed to check delete operation of instance " + entry.name, e);
+        }
+        entry.state = State.DELETING;
+        entry.nextMillis = System.currentTimeMillis() + pollMillis;
+    }
+
+    // Guarded by this
+    private void done(Entry entry) {
+        entries.remove(entry.name);
+        completed++;
+        LOGGER.log(Level.FINE, "Deleted instance {0}", entry.name);
+    }
+
+    // Guarded by this
+    private void retry(Entry entry, Throwable cause) {
+        entry.attempts++;
+        if (entry.attempts >= MAX_ATTEMPTS) {
+            entries.remove(entry.name);
+            failed++;
+            LOGGER.log(
+                    Level.SEVERE,
+                    String.format("Giving up deleting instance %s after %d attempts", entry.name, entry.attempts),
+                    cause);
+            return;
+        }
+        long backoff = Math.min(MAX_RETRY_MILLIS, retryMillis << (entry.attempts - 1));
+        LOGGER.log(
+                Level.WARNING,
+                String.format("Failed to delete instance %s, retrying in %dms", entry.name, backoff),
+                cause);
+        entry.state = State.QUEUED;
+        entry.operation = null;
+        entry.nextMillis = System.currentTimeMillis() + backoff;
+    }
+
+    // Guarded by this
+    private void scheduleDispatch() {
+        if (!dispatchScheduled && !entries.isEmpty()) {
+            dispatchScheduled = true;
+            Timer.get().schedule(this::dispatch, dispatchIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static boolean isNotFound(Throwable e) {
+        Throwable cause = unwrap(e);
+        return cause instanceof GoogleJsonResponseException
+                && ((GoogleJsonResponseException) cause).getStatusCode() == 404;
+    }
+
+    /** An instance to delete and the progress of its deletion. */
+    private static final class Entry {
+        private final String zone;
+        private final String name;
+        private State state = State.QUEUED;
+        private long nextMillis;
+        private int attempts;
+        private String operation;
+
+        private Entry(String zone, String name) {
+            this.zone = zone;
+            this.name = name;
+        }
+    }
+}
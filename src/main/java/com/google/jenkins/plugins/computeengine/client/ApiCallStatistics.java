@@ -0,0 +1,232 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import com.google.common.collect.ImmutableMap;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Counts, latencies and errors of Compute API calls, per project and API method, e.g. {@code
+ * instances.insert}. Calls sent in a batch request are recorded individually, as well as the batch
+ * itself as {@code batch} without a project, as a batch may contain calls for several projects.
+ * Every call is also passed to the registered {@link Listener}s, such as the one publishing to the
+ * Metrics plugin.
+ */
+public final class ApiCallStatistics {
+    private static final Logger LOGGER = Logger.getLogger(ApiCallStatistics.class.getName());
+
+    /** Upper bounds of the latency histogram buckets, the last bucket has no bound. */
+    static final long[] LATENCY_BUCKETS_MILLIS = {50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    /** Error code recorded for calls failing without an HTTP response. */
+    public static final String IO_ERROR = "io";
+
+    private static final ConcurrentMap<String, ConcurrentMap<String, MethodRecorder>> PROJECTS =
+            new ConcurrentHashMap<>();
+
+    private ApiCallStatistics() {}
+
+    /**
+     * Records a call.
+     *
+     * @param projectId The project of the call, empty if unknown.
+     * @param method The API method, see {@link #methodOf(String, String)}.
+     * @param statusCode The HTTP status code of the response, or -1 if there was none.
+     * @param durationNanos The duration of the call, including retries.
+     */
+    static void record(String projectId, String method, int statusCode, long durationNanos) {
+        PROJECTS.computeIfAbsent(projectId, p -> new ConcurrentHashMap<>())
+                .computeIfAbsent(method, m -> new MethodRecorder())
+                .record(statusCode, durationNanos);
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
+        }
+        for (Listener listener : ExtensionList.lookup(Listener.class)) {
+            try {
+                listener.onCall(projectId, method, statusCode, durationNanos);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "API call listener " + listener + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * @param projectId The project.
+     * @return Statistics of the calls to the project, keyed by API method.
+     */
+    public static Map<String, MethodStatistics> getStatistics(String projectId) {
+        Map<String, MethodRecorder> methods = PROJECTS.get(projectId);
+        if (methods == null) {
+            return ImmutableMap.of();
+        }
+        Map<String, MethodStatistics> result = new TreeMap<>();
+        methods.forEach((method, recorder) -> result.put(method, recorder.snapshot()));
+        return result;
+    }
+
+    /**
+     * Names the API method of a request, e.g. {@code instances.get} or {@code
+     * instances.getGuestAttributes}, from its HTTP method and URL path or URI template.
+     *
+     * @param httpMethod The HTTP method.
+     * @param path The URL path, e.g. {@code /compute/v1/projects/p/zones/z/instances/i}.
+     * @return The API method.
+     */
+    static String methodOf(String httpMethod, String path) {
+        if (path == null) {
+            return "other";
+        }
+        int start = path.indexOf("projects/");
+        if (start < 0) {
+            return path.contains("batch") ? "batch" : "other";
+        }
+        List<String> segments = new ArrayList<>(Arrays.asList(path.substring(start).split("/")));
+        // Drop projects/{project} and the zone, region or global scope.
+        segments = segments.subList(Math.min(2, segments.size()), segments.size());
+        if (!segments.isEmpty() && ("zones".equals(segments.get(0)) || "regions".equals(segments.get(0)))) {
+            segments = segments.subList(Math.min(2, segments.size()), segments.size());
+        } else if (!segments.isEmpty() && "global".equals(segments.get(0))) {
+            segments = segments.subList(1, segments.size());
+        }
+        boolean aggregated = !segments.isEmpty() && "aggregated".equals(segments.get(0));
+        if (aggregated) {
+            segments = segments.subList(1, segments.size());
+        }
+        if (segments.isEmpty()) {
+            return "projects.get";
+        }
+        String collection = segments.get(0);
+        if (aggregated) {
+            return collection + ".aggregatedList";
+        }
+        switch (segments.size()) {
+            case 1:
+                return collection + ("POST".equals(httpMethod) ? ".insert" : ".list");
+            case 2:
+                switch (String.valueOf(httpMethod)) {
+                    case "DELETE":
+                        return collection + ".delete";
+                    case "PATCH":
+                        return collection + ".patch";
+                    case "PUT":
+                        return collection + ".update";
+                    default:
+                        return collection + ".get";
+                }
+            default:
+                return collection + "." + segments.get(2);
+        }
+    }
+
+    /** Receives every recorded Compute API call. */
+    public abstract static class Listener implements ExtensionPoint {
+        /**
+         * @param projectId The project of the call, empty if unknown.
+         * @param method The API method, e.g. {@code instances.insert}.
+         * @param statusCode The HTTP status code of the response, or -1 if there was none.
+         * @param durationNanos The duration of the call, including retries.
+         */
+        public abstract void onCall(String projectId, String method, int statusCode, long durationNanos);
+    }
+
+    private static final class MethodRecorder {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(LATENCY_BUCKETS_MILLIS.length + 1);
+        private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        void record(int statusCode, long durationNanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+            calls.increment();
+            totalMillis.add(millis);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS_MILLIS.length && millis > LATENCY_BUCKETS_MILLIS[bucket]) {
+                bucket++;
+            }
+            histogram.incrementAndGet(bucket);
+            if (statusCode < 0 || statusCode >= 400) {
+                String code = statusCode < 0 ? IO_ERROR : String.valueOf(statusCode);
+                errors.computeIfAbsent(code, c -> new LongAdder()).increment();
+            }
+        }
+
+        MethodStatistics snapshot() {
+            Map<String, Long> buckets = new LinkedHashMap<>();
+            for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+                buckets.put("<= " + LATENCY_BUCKETS_MILLIS[i] + " ms", histogram.get(i));
+            }
+            int last = LATENCY_BUCKETS_MILLIS.length;
+            buckets.put("> " + LATENCY_BUCKETS_MILLIS[last - 1] + " ms", histogram.get(last));
+            Map<String, Long> errorCounts = new TreeMap<>();
+            errors.forEach((code, count) -> errorCounts.put(code, count.sum()));
+            long count = calls.sum();
+            return new MethodStatistics(count, count == 0 ? 0 : totalMillis.sum() / count, buckets, errorCounts);
+        }
+    }
+
+    /** Point in time statistics of the calls to an API method. */
+    public static final class MethodStatistics {
+        private final long calls;
+        private final long meanLatencyMillis;
+        private final Map<String, Long> latencyHistogram;
+        private final Map<String, Long> errors;
+
+        MethodStatistics(
+                long calls, long meanLatencyMillis, Map<String, Long> latencyHistogram, Map<String, Long> errors) {
+            this.calls = calls;
+            this.meanLatencyMillis = meanLatencyMillis;
+            this.latencyHistogram = latencyHistogram;
+            this.errors = errors;
+        }
+
+        /** @return Number of calls. */
+        public long getCalls() {
+            return calls;
+        }
+
+        /** @return Mean duration of the calls. */
+        public long getMeanLatencyMillis() {
+            return meanLatencyMillis;
+        }
+
+        /** @return Number of calls by latency bucket, in increasing latency. */
+        public Map<String, Long> getLatencyHistogram() {
+            return latencyHistogram;
+        }
+
+        /** @return Number of failed calls by HTTP status code, or {@link #IO_ERROR}. */
+        public Map<String, Long> getErrors() {
+            return errors;
+        }
+    }
+}
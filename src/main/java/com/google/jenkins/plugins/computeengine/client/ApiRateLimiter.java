@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Token bucket limiting the rate of Compute API requests per project, shared by all clouds and
+ * descriptors using that project. Requests wait for a token in {@link Priority} order, so inserts
+ * and deletes go ahead of the reads made while provisioning, then of status polls, then of the
+ * lists shown in the configuration page. As provisioning reads cannot be told apart from lookups by
+ * their URL, the provisioning path marks them with {@link #withPriority(Priority, Call)}. The rate
+ * and burst, 20 requests per second and 50 by default, are set with the system properties {@code
+ * ApiRateLimiter.requestsPerSecond} and {@code ApiRateLimiter.burst}.
+ */
+public final class ApiRateLimiter {
+    static final double REQUESTS_PER_SECOND =
+            Double.parseDouble(System.getProperty(ApiRateLimiter.class.getName() + ".requestsPerSecond", "20"));
+    static final int BURST = Integer.getInteger(ApiRateLimiter.class.getName() + ".burst", 50);
+
+    private static final ConcurrentMap<String, ApiRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Priority> CURRENT_PRIORITY = new ThreadLocal<>();
+
+    /** Priority classes of requests, in the order they are served. */
+    public enum Priority {
+        /** Requests changing resources, e.g. inserting or deleting instances. */
+        MUTATION,
+        /** Reads made while provisioning, e.g. counting the instances of a cloud or reading its template. */
+        PROVISIONING,
+        /** Reads of single resources, e.g. instance status or operation polls. */
+        POLL,
+        /** Lists, mostly shown in the configuration page. */
+        LOOKUP
+    }
+
+    private final double permitsPerMilli;
+    private final double maxPermits;
+    // Guarded by this
+    private double permits;
+    private long lastRefillMillis;
+    private long nextSequence;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+
+    ApiRateLimiter(double requestsPerSecond, int burst) {
+        this.permitsPerMilli = Math.max(0.001, requestsPerSecond) / 1000;
+        this.maxPermits = Math.max(1, burst);
+        this.permits = maxPermits;
+        this.lastRefillMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @param projectId The project requests are sent to, empty if unknown.
+     * @return The limiter of the project.
+     */
+    public static ApiRateLimiter forProject(String projectId) {
+        return LIMITERS.computeIfAbsent(projectId, p -> new ApiRateLimiter(REQUESTS_PER_SECOND, BURST));
+    }
+
+    /**
+     * A call sending requests.
+     *
+     * @param <T> The result of the call.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Makes a call whose requests, sent from the calling thread, wait for a token with at least the
+     * given priority.
+     *
+     * @param priority The priority of the requests of the call.
+     * @param call The call.
+     * @return The result of the call.
+     * @throws IOException if the call failed.
+     */
+    public static <T> T withPriority(Priority priority, Call<T> call) throws IOException {
+        Priority previous = CURRENT_PRIORITY.get();
+        CURRENT_PRIORITY.set(priority);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                CURRENT_PRIORITY.remove();
+            } else {
+                CURRENT_PRIORITY.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @param priority The priority of a request, derived from its URL.
+     * @return The priority, raised to the one set by {@link #withPriority(Priority, Call)} on the
+     *     calling thread.
+     */
+    static Priority effectivePriority(Priority priority) {
+        Priority current = CURRENT_PRIORITY.get();
+        return current != null && current.compareTo(priority) < 0 ? current : priority;
+    }
+
+    /** @return The number of requests waiting for a token, keyed by project. */
+    public static Map<String, Integer> getQueueDepths() {
+        ImmutableMap.Builder<String, Integer> result = ImmutableMap.builder();
+        LIMITERS.forEach((project, limiter) -> result.put(project, limiter.getQueueDepth()));
+        return result.build();
+    }
+
+    /**
+     * Waits for a token. Waiting requests are served by priority, then in arrival order.
+     *
+     * @param priority The priority of the request.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public synchronized void acquire(Priority priority) throws InterruptedIOException {
+        refill();
+        if (waiters.isEmpty() && permits >= 1) {
+            permits -= 1;
+            return;
+        }
+        Waiter waiter = new Waiter(priority, nextSequence++);
+        waiters.add(waiter);
+        try {
+            while (true) {
+                refill();
+                if (waiters.peek() == waiter && permits >= 1) {
+                    waiters.poll();
+                    permits -= 1;
+                    // Let the next waiter check whether a token is left.
+                    notifyAll();
+                    return;
+                }
+                wait(Math.max(1, (long) Math.ceil((1 - permits) / permitsPerMilli)));
+            }
+        } catch (InterruptedException e) {
+            waiters.remove(waiter);
+            notifyAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Compute API rate limit");
+        }
+    }
+
+    /** @return The number of requests waiting for a token. */
+    public synchronized int getQueueDepth() {
+        return waiters.size();
+    }
+
+    /** @return The number of requests waiting for a token, by priority. */
+    public synchronized Map<Priority, Integer> getQueueDepthByPriority() {
+        Map<Priority, Integer> result = new EnumMap<>(Priority.class);
+        for (Priority p : Priority.values()) {
+            result.put(p, 0);
+        }
+        for (Waiter w : waiters) {
+            result.merge(w.priority, 1, Integer::sum);
+        }
+        return result;
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        permits = Math.min(maxPermits, permits + (now - lastRefillMillis) * permitsPerMilli);
+        lastRefillMillis = now;
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private final Priority priority;
+        private final long sequence;
+
+        private Waiter(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
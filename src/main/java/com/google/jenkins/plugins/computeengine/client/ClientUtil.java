@@ -4,6 +4,7 @@ import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
 import com.google.cloud.graphite.platforms.plugin.client.ClientFactory;
 import com.google.common.base.Preconditions;
@@ -22,7 +23,7 @@ import java.util.Optional;
 
 /** Utilities for using the gcp-plugin-core clients. */
 public class ClientUtil {
-    private static final String APPLICATION_NAME = "jenkins-google-compute-plugin";
+    static final String APPLICATION_NAME = "jenkins-google-compute-plugin";
 
     /**
      * Creates a {@link ClientFactory} for generating the GCP API clients.
@@ -46,15 +47,52 @@ public class ClientUtil {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(credentialsId));
         Preconditions.checkNotNull(transport);
 
-        ClientFactory clientFactory;
+        return getClientFactory(getCredential(itemGroup, domainRequirements, credentialsId), transport);
+    }
+
+    /**
+     * Creates a {@link ClientFactory} for generating the GCP API clients from an existing credential,
+     * so that callers holding on to the credential share its access token with the clients.
+     *
+     * @param credential The credential to authorize requests with, or an initializer wrapping it.
+     * @param transport An {@link Optional} parameter that specifies the {@link HttpTransport} to use.
+     *     A default will be used if unspecified.
+     * @return A {@link ClientFactory} to get clients.
+     * @throws AbortException If there was an error initializing the ClientFactory.
+     */
+    public static ClientFactory getClientFactory(HttpRequestInitializer credential, Optional<HttpTransport> transport)
+            throws AbortException {
+        Preconditions.checkNotNull(credential);
+        Preconditions.checkNotNull(transport);
+
         try {
-            GoogleRobotCredentials robotCreds = getRobotCredentials(itemGroup, domainRequirements, credentialsId);
-            Credential googleCredential = getGoogleCredential(robotCreds);
-            clientFactory = new ClientFactory(transport, googleCredential, APPLICATION_NAME);
+            return new ClientFactory(transport, credential, APPLICATION_NAME);
         } catch (IOException | GeneralSecurityException ex) {
             throw new AbortException(Messages.ClientFactory_FailedToInitializeHTTPTransport(ex));
         }
-        return clientFactory;
+    }
+
+    /**
+     * Gets the OAuth credential for the Compute Engine scope.
+     *
+     * @param itemGroup The Jenkins context to use for retrieving the credentials.
+     * @param domainRequirements A list of domain requirements.
+     * @param credentialsId The ID of the credentials.
+     * @return The OAuth credential.
+     * @throws AbortException If the credentials could not be found or initialized.
+     */
+    public static Credential getCredential(
+            ItemGroup itemGroup, ImmutableList<DomainRequirement> domainRequirements, String credentialsId)
+            throws AbortException {
+        Preconditions.checkNotNull(itemGroup);
+        Preconditions.checkNotNull(domainRequirements);
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(credentialsId));
+
+        try {
+            return getGoogleCredential(getRobotCredentials(itemGroup, domainRequirements, credentialsId));
+        } catch (GeneralSecurityException ex) {
+            throw new AbortException(Messages.ClientFactory_FailedToInitializeHTTPTransport(ex));
+        }
     }
 
     /**
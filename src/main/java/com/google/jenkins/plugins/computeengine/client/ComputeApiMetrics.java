@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.google.common.collect.ImmutableMap;
+import com.google.jenkins.plugins.computeengine.client.ComputeClientPool.TokenStatistics;
+import com.google.jenkins.plugins.computeengine.client.RetryBudget.RetryStatistics;
+import hudson.Extension;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+
+/**
+ * Publishes Compute API statistics to the Metrics plugin, when it is installed. Calls are timed per
+ * project and API method, e.g. {@code gce.api.my-project.instances.insert}, with error counters
+ * per status code below them. Rate limiter queues, retries and access tokens are published as
+ * gauges.
+ */
+public final class ComputeApiMetrics {
+    static final String PREFIX = "gce.api";
+
+    private ComputeApiMetrics() {}
+
+    /** Times every Compute API call. */
+    @Extension(optional = true)
+    public static final class CallListener extends ApiCallStatistics.Listener {
+        @Override
+        public void onCall(String projectId, String method, int statusCode, long durationNanos) {
+            MetricRegistry registry = Metrics.metricRegistry();
+            String timer = name(PREFIX, projectId, method);
+            registry.timer(timer).update(durationNanos, TimeUnit.NANOSECONDS);
+            if (statusCode < 0 || statusCode >= 400) {
+                String code = statusCode < 0 ? ApiCallStatistics.IO_ERROR : String.valueOf(statusCode);
+                registry.counter(name(timer, "errors", code)).inc();
+            }
+        }
+    }
+
+    /** Gauges of the rate limiters, retry budgets and access tokens of all projects and clients. */
+    @Extension(optional = true)
+    public static final class Provider extends MetricProvider {
+        @Override
+        public MetricSet getMetricSet() {
+            return () -> ImmutableMap.<String, Metric>builder()
+                    .put(name(PREFIX, "queue", "depth"), (Gauge<Integer>) () -> ApiRateLimiter.getQueueDepths()
+                            .values()
+                            .stream()
+                            .mapToInt(Integer::intValue)
+                            .sum())
+                    .put(name(PREFIX, "retries"), retryGauge(RetryStatistics::getRetries))
+                    .put(name(PREFIX, "retries", "budgetExhausted"), retryGauge(RetryStatistics::getBudgetExhausted))
+                    .put(name(PREFIX, "tokens", "refreshFailures"), (Gauge<Long>) () -> tokens().stream()
+                            .mapToLong(TokenStatistics::getRefreshFailures)
+                            .sum())
+                    .put(name(PREFIX, "tokens", "maxRefreshLatencyMillis"), (Gauge<Long>) () -> tokens().stream()
+                            .mapToLong(TokenStatistics::getLastRefreshLatencyMillis)
+                            .max()
+                            .orElse(-1))
+                    .put(name(PREFIX, "tokens", "minExpiresInSeconds"), (Gauge<Long>) () -> tokens().stream()
+                            .filter(t -> t.getExpiresInSeconds() != null)
+                            .mapToLong(TokenStatistics::getExpiresInSeconds)
+                            .min()
+                            .orElse(-1))
+                    .build();
+        }
+
+        private static Gauge<Long> retryGauge(ToLongFunction<RetryStatistics> statistic) {
+            return () -> RetryBudget.getRetryStatistics().values().stream()
+                    .mapToLong(statistic)
+                    .sum();
+        }
+
+        private static Collection<TokenStatistics> tokens() {
+            return ComputeClientPool.getTokenStatistics().values();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.GuestAttributes;
+import com.google.api.services.compute.model.GuestAttributesEntry;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.api.services.compute.model.Snapshot;
+import com.google.common.base.Stopwatch;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+
+/**
+ * Sends per-instance reads and deletes of a pooled client as batch HTTP requests. Calls made within
+ * a few milliseconds of each other are collected and sent together, up to {@link
+ * #MAX_BATCH_SIZE} calls per batch, so checking or deleting many agents at once takes a few round
+ * trips instead of one per agent. Each call is still counted by the {@link ApiRateLimiter} of its
+ * project. Batches are sent on threads owned by the batcher, never on the shared {@link Timer}
+ * threads, which only trigger sending once the window has passed.
+ */
+public final class ComputeBatcher {
+    private static final Logger LOGGER = Logger.getLogger(ComputeBatcher.class.getName());
+
+    static final long WINDOW_MILLIS = Integer.getInteger(ComputeBatcher.class.getName() + ".windowMillis", 5);
+    static final int MAX_BATCH_SIZE = Integer.getInteger(ComputeBatcher.class.getName() + ".maxBatchSize", 100);
+    static final int SENDER_THREADS = Integer.getInteger(ComputeBatcher.class.getName() + ".senderThreads", 8);
+    static final long AWAIT_TIMEOUT_SECONDS =
+            Integer.getInteger(ComputeBatcher.class.getName() + ".awaitTimeoutSeconds", 120);
+
+    private final Compute compute;
+    private final long windowMillis;
+    private final ThreadPoolExecutor sender;
+    // Guarded by this
+    private List<Call<?>> pending = new ArrayList<>();
+    private boolean flushScheduled;
+
+    ComputeBatcher(Compute compute, long windowMillis) {
+        this.compute = compute;
+        this.windowMillis = windowMillis;
+        this.sender = new ThreadPoolExecutor(
+                SENDER_THREADS,
+                SENDER_THREADS,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "ComputeBatcher.send"));
+        this.sender.allowCoreThreadTimeOut(true);
+    }
+
+    /** Stops sending, calls made afterwards and calls not sent yet fail. */
+    public void shutdown() {
+        sender.shutdown();
+        failPending();
+    }
+
+    /**
+     * Gets an instance.
+     *
+     * @param fields The instance fields to return, e.g. {@code status}, or null for all fields.
+     * @return The instance, once the batch it was sent in completed.
+     */
+    public CompletableFuture<Instance> getInstanceAsync(
+            String projectId, String zone, String instanceId, @Nullable String fields) {
+        try {
+            return enqueue(compute.instances().get(projectId, zone, instanceId).setFields(fields));
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Gets an instance, waiting for the batch it is sent in.
+     *
+     * @return The instance.
+     * @throws IOException If the instance could not be retrieved.
+     */
+    public Instance getInstance(String projectId, String zone, String instanceId) throws IOException {
+        return getInstance(projectId, zone, instanceId, null);
+    }
+
+    /**
+     * Gets some fields of an instance, waiting for the batch it is sent in.
+     *
+     * @param fields The instance fields to return, e.g. {@code status}, or null for all fields.
+     * @return The instance, with only the requested fields set.
+     * @throws IOException If the instance could not be retrieved.
+     */
+    public Instance getInstance(String projectId, String zone, String instanceId, @Nullable String fields)
+            throws IOException {
+        return await(getInstanceAsync(projectId, zone, instanceId, fields));
+    }
+
+    /**
+     * Gets the guest attributes of an instance under a query path.
+     *
+     * @param queryPath The raw encoded query path, e.g. {@code hostkeys%2F}.
+     * @return The guest attributes found, empty if none, once the batch they were read in completed.
+     */
+    public CompletableFuture<List<GuestAttributesEntry>> getGuestAttributesAsync(
+            String projectId, String zone, String instanceId, String queryPath) {
+        CompletableFuture<GuestAttributes> attributes;
+        try {
+            attributes = enqueue(
+                    compute.instances().getGuestAttributes(projectId, zone, instanceId).setQueryPath(queryPath));
+        } catch (IOException e) {
+            return failed(e);
+        }
+        return attributes.thenApply(result -> {
+            if (result == null || result.getQueryValue() == null || result.getQueryValue().getItems() == null) {
+                return Collections.<GuestAttributesEntry>emptyList();
+            }
+            return result.getQueryValue().getItems();
+        });
+    }
+
+    /**
+     * Deletes an instance without waiting for the deletion to complete.
+     *
+     * @return The delete operation, once the batch it was sent in completed.
+     */
+    public CompletableFuture<Operation> terminateInstanceAsync(String projectId, String zone, String instanceId) {
+        try {
+            return enqueue(compute.instances().delete(projectId, zone, instanceId));
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Gets a zone operation, such as the operation of a delete.
+     *
+     * @param fields The operation fields to return, e.g. {@code status,error}, or null for all fields.
+     * @return The operation, once the batch it was sent in completed.
+     */
+    public CompletableFuture<Operation> getZoneOperationAsync(
+            String projectId, String zone, String operationId, @Nullable String fields) {
+        try {
+            return enqueue(compute.zoneOperations().get(projectId, zone, operationId).setFields(fields));
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Starts a snapshot of a disk. The request has a request ID, so it is retried like deletes.
+     *
+     * @param snapshot The snapshot to create, with at least its name.
+     * @return The snapshot operation, once the batch it was sent in completed.
+     */
+    public CompletableFuture<Operation> createSnapshotAsync(
+            String projectId, String zone, String diskId, Snapshot snapshot) {
+        try {
+            return enqueue(compute.disks()
+                    .createSnapshot(projectId, zone, diskId, snapshot)
+                    .setRequestId(UUID.randomUUID().toString()));
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Gets a snapshot.
+     *
+     * @param fields The snapshot fields to return, e.g. {@code status}, or null for all fields.
+     * @return The snapshot, once the batch it was sent in completed.
+     */
+    public CompletableFuture<Snapshot> getSnapshotAsync(String projectId, String snapshotId, @Nullable String fields) {
+        try {
+            return enqueue(compute.snapshots().get(projectId, snapshotId).setFields(fields));
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Deletes a disk without waiting for the deletion to complete.
+     *
+     * @return The delete operation, once the batch it was sent in completed.
+     */
+    public CompletableFuture<Operation> deleteDiskAsync(String projectId, String zone, String diskId) {
+        try {
+            return enqueue(compute.disks().delete(projectId, zone, diskId));
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Deletes a snapshot without waiting for the deletion to complete.
+     *
+     * @return The delete operation, once the batch it was sent in completed.
+     */
+    public CompletableFuture<Operation> deleteSnapshotAsync(String projectId, String snapshotId) {
+        try {
+            return enqueue(compute.snapshots().delete(projectId, snapshotId));
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    private <T> CompletableFuture<T> enqueue(AbstractGoogleJsonClientRequest<T> request) {
+        if (sender.isShutdown()) {
+            return failed(new IOException("The compute client was closed"));
+        }
+        Call<T> call = new Call<>(request);
+        boolean flushNow = false;
+        synchronized (this) {
+            pending.add(call);
+            if (pending.size() >= MAX_BATCH_SIZE) {
+                flushNow = true;
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                // The timer thread only hands the flush over, it must not do any blocking work.
+                Timer.get().schedule(this::dispatch, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            dispatch();
+        }
+        return call.future;
+    }
+
+    private void dispatch() {
+        try {
+            sender.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            failPending();
+        }
+    }
+
+    private void failPending() {
+        List<Call<?>> calls;
+        synchronized (this) {
+            calls = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        for (Call<?> call : calls) {
+            call.future.completeExceptionally(new IOException("The compute client was closed"));
+        }
+    }
+
+    void flush() {
+        List<Call<?>> calls;
+        synchronized (this) {
+            calls = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        for (int from = 0; from < calls.size(); from += MAX_BATCH_SIZE) {
+            send(calls.subList(from, Math.min(calls.size(), from + MAX_BATCH_SIZE)));
+        }
+    }
+
+    private void send(List<Call<?>> calls) {
+        if (calls.size() == 1) {
+            // Nothing to batch with, avoid the overhead of the multipart request.
+            calls.get(0).executeDirectly();
+            return;
+        }
+        // Initialized like the requests it contains, so the batch itself is retried and recorded.
+        BatchRequest batch = compute.batch(compute.getRequestFactory().getInitializer());
+        try {
+            for (Call<?> call : calls) {
+                call.queue(batch);
+            }
+            batch.execute();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Batch of " + calls.size() + " compute requests failed", e);
+            for (Call<?> call : calls) {
+                call.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(IOException e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new IOException("Timed out waiting for a batched compute request");
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a batched compute request");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** A request and the future of its result. */
+    private static final class Call<T> extends JsonBatchCallback<T> {
+        private final AbstractGoogleJsonClientRequest<T> request;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Stopwatch stopwatch = Stopwatch.createUnstarted();
+
+        private Call(AbstractGoogleJsonClientRequest<T> request) {
+            this.request = request;
+        }
+
+        void queue(BatchRequest batch) throws IOException {
+            stopwatch.start();
+            request.queue(batch, this);
+        }
+
+        /** Records a call sent in a batch, as the HTTP request of the batch is recorded as a whole. */
+        private void record(int statusCode) {
+            String path = request.buildHttpRequestUrl().getRawPath();
+            ApiCallStatistics.record(
+                    ComputeRequestInitializer.projectOf(path),
+                    ApiCallStatistics.methodOf(request.getRequestMethod(), path),
+                    statusCode,
+                    stopwatch.elapsed(TimeUnit.NANOSECONDS));
+        }
+
+        void executeDirectly() {
+            try {
+                future.complete(request.execute());
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onSuccess(T result, HttpHeaders responseHeaders) {
+            record(200);
+            future.complete(result);
+        }
+
+        @Override
+        public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+            record(error.getCode());
+            // Same exception as a failed individual request, so callers can check the status code.
+            HttpResponseException.Builder builder =
+                    new HttpResponseException.Builder(error.getCode(), error.getMessage(), responseHeaders)
+                            .setMessage(error.getCode() + " " + error.getMessage());
+            future.completeExceptionally(new GoogleJsonResponseException(builder, error));
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.compute.Compute;
+import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.jenkins.plugins.computeengine.HttpTransportConfiguration;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+/**
+ * Process wide pool of {@link ComputeClient}s keyed by credentials ID, shared by the clouds and the
+ * descriptor endpoints so that OAuth tokens and HTTP connections are reused instead of being
+ * created for every call. Credentials are looked up in the Jenkins root context. The pool is
+ * cleared whenever credentials may have changed. Access tokens of pooled clients are renewed ahead
+ * of their expiry by {@link TokenRefreshWork}. Requests of all pooled clients are rate limited per
+ * project by {@link ApiRateLimiter}. Dropped clients are closed, releasing their connections, once
+ * the calls they may still be running had time to complete.
+ */
+public final class ComputeClientPool {
+    private static final Logger LOGGER = Logger.getLogger(ComputeClientPool.class.getName());
+
+    static final long CLOSE_DELAY_SECONDS =
+            Integer.getInteger(ComputeClientPool.class.getName() + ".closeDelaySeconds", 300);
+
+    private static final ConcurrentMap<Key, PooledClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private ComputeClientPool() {}
+
+    /**
+     * Gets the pooled client for some credentials, creating it if needed.
+     *
+     * @param credentialsId The ID of the credentials to use.
+     * @return The client.
+     * @throws IOException If the client could not be created, e.g. if the credentials do not exist.
+     */
+    public static ComputeClient getClient(String credentialsId) throws IOException {
+        return getClient(credentialsId, null);
+    }
+
+    /**
+     * Gets the pooled client for some credentials and transport settings, creating it if needed.
+     *
+     * @param credentialsId The ID of the credentials to use.
+     * @param transport The transport settings, null for the default transport.
+     * @return The client.
+     * @throws IOException If the client could not be created, e.g. if the credentials do not exist.
+     */
+    public static ComputeClient getClient(String credentialsId, @Nullable HttpTransportConfiguration transport)
+            throws IOException {
+        return getPooled(new Key(credentialsId, transport)).client;
+    }
+
+    /**
+     * Gets the batcher of the pooled client for some credentials, creating the client if needed.
+     *
+     * @param credentialsId The ID of the credentials to use.
+     * @param transport The transport settings, null for the default transport.
+     * @return The batcher, sharing the credentials and HTTP transport of the client.
+     * @throws IOException If the client could not be created, e.g. if the credentials do not exist.
+     */
+    public static ComputeBatcher getBatcher(String credentialsId, @Nullable HttpTransportConfiguration transport)
+            throws IOException {
+        return getPooled(new Key(credentialsId, transport)).batcher;
+    }
+
+    /**
+     * Gets the instance lister of the pooled client for some credentials, creating the client if
+     * needed.
+     *
+     * @param credentialsId The ID of the credentials to use.
+     * @param transport The transport settings, null for the default transport.
+     * @return The lister, sharing the credentials and HTTP transport of the client.
+     * @throws IOException If the client could not be created, e.g. if the credentials do not exist.
+     */
+    public static InstanceLister getInstanceLister(String credentialsId, @Nullable HttpTransportConfiguration transport)
+            throws IOException {
+        return getPooled(new Key(credentialsId, transport)).lister;
+    }
+
+    private static PooledClient getPooled(Key key) throws IOException {
+        PooledClient pooled = CLIENTS.get(key);
+        if (pooled == null) {
+            PooledClient created = new PooledClient(key);
+            pooled = CLIENTS.putIfAbsent(key, created);
+            if (pooled == null) {
+                pooled = created;
+            } else {
+                // Another thread pooled a client first, this one was never used.
+                created.close();
+            }
+        }
+        return pooled;
+    }
+
+    /**
+     * Drops the pooled client of some credentials.
+     *
+     * @param credentialsId The ID of the credentials.
+     */
+    public static void invalidate(String credentialsId) {
+        for (Key key : ImmutableList.copyOf(CLIENTS.keySet())) {
+            if (key.credentialsId.equals(credentialsId)) {
+                drop(key);
+            }
+        }
+    }
+
+    /** Drops all pooled clients. */
+    public static void invalidateAll() {
+        if (!CLIENTS.isEmpty()) {
+            LOGGER.log(Level.FINE, "Credentials changed, dropping pooled compute clients");
+            for (Key key : ImmutableList.copyOf(CLIENTS.keySet())) {
+                drop(key);
+            }
+        }
+    }
+
+    private static void drop(Key key) {
+        PooledClient pooled = CLIENTS.remove(key);
+        if (pooled != null) {
+            // Callers may still be using the client they got before it was dropped.
+            Timer.get().schedule(pooled::close, CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /** @return Access token statistics of the pooled clients, keyed by credentials ID. */
+    public static Map<String, TokenStatistics> getTokenStatistics() {
+        // Clients of the same credentials with different transports have their own tokens, report one.
+        Map<String, TokenStatistics> result = new TreeMap<>();
+        CLIENTS.forEach((key, pooled) -> result.putIfAbsent(key.credentialsId, pooled.statistics()));
+        return ImmutableMap.copyOf(result);
+    }
+
+    /**
+     * Renews the access tokens of pooled clients that are missing or expire soon.
+     *
+     * @param refreshAheadSeconds Tokens expiring within this many seconds are renewed.
+     */
+    static void refreshExpiringTokens(long refreshAheadSeconds) {
+        for (PooledClient pooled : ImmutableList.copyOf(CLIENTS.values())) {
+            pooled.refreshIfExpiring(refreshAheadSeconds);
+        }
+    }
+
+    /** Credentials and transport settings a client is pooled by. */
+    private static final class Key {
+        private final String credentialsId;
+        private final HttpTransportConfiguration transport;
+
+        private Key(String credentialsId, HttpTransportConfiguration transport) {
+            this.credentialsId = credentialsId;
+            this.transport = transport;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Objects.equals(credentialsId, other.credentialsId) && Objects.equals(transport, other.transport);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(credentialsId, transport);
+        }
+    }
+
+    /** A pooled client and the credential whose access token it uses. */
+    private static final class PooledClient {
+        private final String credentialsId;
+        private final Credential credential;
+        private final ComputeClient client;
+        private final ComputeBatcher batcher;
+        private final InstanceLister lister;
+        private final HttpTransport transport;
+        private final AtomicLong refreshFailures = new AtomicLong();
+        private volatile String lastSeenToken;
+        private volatile long tokenSeenAtMillis;
+        private volatile long lastRefreshLatencyMillis = -1;
+
+        private PooledClient(Key key) throws IOException {
+            this.credentialsId = key.credentialsId;
+            this.credential = ClientUtil.getCredential(Jenkins.get(), ImmutableList.of(), credentialsId);
+            HttpRequestInitializer initializer = new ComputeRequestInitializer(credential, key.transport);
+            try {
+                this.transport = key.transport != null
+                        ? key.transport.createTransport()
+                        : GoogleNetHttpTransport.newTrustedTransport();
+            } catch (GeneralSecurityException e) {
+                throw new AbortException(Messages.ClientFactory_FailedToInitializeHTTPTransport(e));
+            }
+            // The client, the batcher and the lister share the transport and its connections.
+            this.client = ClientUtil.getClientFactory(initializer, Optional.of(transport)).computeClient();
+            Compute compute = new Compute.Builder(transport, JacksonFactory.getDefaultInstance(), initializer)
+                    .setApplicationName(ClientUtil.APPLICATION_NAME)
+                    .build();
+            this.batcher = new ComputeBatcher(compute, ComputeBatcher.WINDOW_MILLIS);
+            this.lister = new InstanceLister(compute);
+        }
+
+        /** Fails the calls still queued in the batcher and releases the connections of the transport. */
+        void close() {
+            batcher.shutdown();
+            try {
+                transport.shutdown();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to close the HTTP transport of credentials " + credentialsId, e);
+            }
+        }
+
+        void refreshIfExpiring(long refreshAheadSeconds) {
+            Long expiresInSeconds = credential.getExpiresInSeconds();
+            if (credential.getAccessToken() != null
+                    && expiresInSeconds != null
+                    && expiresInSeconds > refreshAheadSeconds) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                if (!credential.refreshToken()) {
+                    refreshFailures.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Could not renew the access token of credentials " + credentialsId);
+                }
+            } catch (IOException | RuntimeException e) {
+                refreshFailures.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Failed to renew the access token of credentials " + credentialsId, e);
+            } finally {
+                lastRefreshLatencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+        }
+
+        TokenStatistics statistics() {
+            // Tokens may also be renewed inline by the client, so the age is measured from the
+            // first time the current token was seen.
+            String token = credential.getAccessToken();
+            long now = System.currentTimeMillis();
+            if (token != null && !token.equals(lastSeenToken)) {
+                lastSeenToken = token;
+                tokenSeenAtMillis = now;
+            }
+            return new TokenStatistics(
+                    token == null ? -1 : now - tokenSeenAtMillis,
+                    credential.getExpiresInSeconds(),
+                    lastRefreshLatencyMillis,
+                    refreshFailures.get());
+        }
+    }
+
+    /** Point in time statistics of the access token of a pooled client. */
+    public static final class TokenStatistics {
+        private final long tokenAgeMillis;
+        private final Long expiresInSeconds;
+        private final long lastRefreshLatencyMillis;
+        private final long refreshFailures;
+
+        TokenStatistics(
+                long tokenAgeMillis, Long expiresInSeconds, long lastRefreshLatencyMillis, long refreshFailures) {
+            this.tokenAgeMillis = tokenAgeMillis;
+            this.expiresInSeconds = expiresInSeconds;
+            this.lastRefreshLatencyMillis = lastRefreshLatencyMillis;
+            this.refreshFailures = refreshFailures;
+        }
+
+        /** @return Milliseconds since the current token was first seen, -1 if there is no token. */
+        public long getTokenAgeMillis() {
+            return tokenAgeMillis;
+        }
+
+        /** @return Seconds until the current token expires, null if unknown. */
+        public Long getExpiresInSeconds() {
+            return expiresInSeconds;
+        }
+
+        /** @return Duration of the last background renewal, -1 if none happened yet. */
+        public long getLastRefreshLatencyMillis() {
+            return lastRefreshLatencyMillis;
+        }
+
+        /** @return Number of failed background renewals. */
+        public long getRefreshFailures() {
+            return refreshFailures;
+        }
+    }
+
+    /**
+     * Clears the pool when global credentials, or a folder holding its own credentials store, are
+     * saved, as the saved object does not tell which credentials changed. Saving Jenkins itself or an
+     * item group without a credentials store, such as a multibranch project after a scan, keeps the
+     * pool.
+     */
+    @Extension
+    public static final class CredentialsChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider
+                    || (o instanceof ItemGroup && !(o instanceof Jenkins) && holdsCredentialsStore((ItemGroup<?>) o))) {
+                invalidateAll();
+            }
+        }
+
+        private static boolean holdsCredentialsStore(ItemGroup<?> group) {
+            for (CredentialsStore store : CredentialsProvider.lookupStores(group)) {
+                if (store.getContext() == group) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.BackOffUtils;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.Sleeper;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import com.google.jenkins.plugins.computeengine.HttpTransportConfiguration;
+import com.google.jenkins.plugins.computeengine.client.ApiRateLimiter.Priority;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Initializes the requests of pooled clients: authorizes them with the shared credential and makes
+ * them wait for the {@link ApiRateLimiter} of their project before being sent. Batch requests do
+ * not wait themselves, as each request they contain does. Idempotent requests failing with 429, 500
+ * or 503, or with an I/O error, are retried with exponential backoff and jitter within the {@link
+ * RetryBudget} of their project. Instance inserts and deletes, as well as the other mutations sent
+ * in batches, carry a request ID, so the API ignores a retry of a request it already executed.
+ * Calls are recorded in {@link ApiCallStatistics} once, with the outcome of their last attempt and
+ * their duration including retries.
+ */
+final class ComputeRequestInitializer implements HttpRequestInitializer {
+    private static final Logger LOGGER = Logger.getLogger(ComputeRequestInitializer.class.getName());
+
+    static final int MAX_RETRIES = Integer.getInteger(ComputeRequestInitializer.class.getName() + ".maxRetries", 5);
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = ImmutableSet.of(429, 500, 503);
+    private static final String REQUEST_ID = "requestId";
+    private static final String BATCH_PATH = "/batch/";
+
+    private final Credential credential;
+    private final HttpTransportConfiguration transport;
+
+    /**
+     * @param credential The credential to authorize requests with.
+     * @param transport The transport settings of the client, null for the defaults.
+     */
+    ComputeRequestInitializer(Credential credential, @Nullable HttpTransportConfiguration transport) {
+        this.credential = credential;
+        this.transport = transport;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        credential.initialize(request);
+        String path = request.getUrl().getRawPath();
+        String project = projectOf(path);
+        if (needsRequestId(request.getRequestMethod(), path) && request.getUrl().getFirst(REQUEST_ID) == null) {
+            request.getUrl().set(REQUEST_ID, UUID.randomUUID().toString());
+        }
+
+        if (transport != null) {
+            request.setConnectTimeout(transport.getConnectTimeoutMillis());
+            request.setReadTimeout(transport.getReadTimeoutMillis());
+        }
+        boolean gzip = transport == null || transport.isGzip();
+
+        CallRecorder call = new CallRecorder(project, ApiCallStatistics.methodOf(request.getRequestMethod(), path));
+        request.setResponseInterceptor(response -> call.record(response.getStatusCode()));
+
+        HttpExecuteInterceptor auth = request.getInterceptor();
+        request.setInterceptor(r -> {
+            if (!gzip) {
+                // Client libraries enable compression after initialization, so disable it here.
+                r.setEncoding(null);
+                r.getHeaders().setAcceptEncoding(null);
+            }
+            if (!isBatch(path)) {
+                // The requests of a batch acquire their permits when the batch is sent.
+                ApiRateLimiter.forProject(project).acquire(priorityOf(r));
+            }
+            RetryBudget.forProject(project).onRequest();
+            call.onAttempt();
+            if (auth != null) {
+                auth.intercept(r);
+            }
+        });
+
+        boolean idempotent = isIdempotent(request);
+        BackOff backOff = new ExponentialBackOff.Builder()
+                .setInitialIntervalMillis(500)
+                .setMaxIntervalMillis(30000)
+                .setMaxElapsedTimeMillis(120000)
+                .setMultiplier(2)
+                .setRandomizationFactor(0.5)
+                .build();
+        HttpUnsuccessfulResponseHandler authHandler = request.getUnsuccessfulResponseHandler();
+        request.setNumberOfRetries(MAX_RETRIES);
+        request.setUnsuccessfulResponseHandler((r, response, supportsRetry) -> {
+            if (authHandler != null && authHandler.handleResponse(r, response, supportsRetry)) {
+                // Retried with a renewed access token.
+                call.onRetry();
+                return true;
+            }
+            boolean retried = supportsRetry
+                    && idempotent
+                    && RETRYABLE_STATUS_CODES.contains(response.getStatusCode())
+                    && retry(r, project, backOff, "HTTP " + response.getStatusCode());
+            if (retried) {
+                call.onRetry();
+            }
+            return retried;
+        });
+        request.setIOExceptionHandler((r, supportsRetry) -> {
+            if (supportsRetry && idempotent && retry(r, project, backOff, "I/O error")) {
+                call.onRetry();
+                return true;
+            }
+            call.record(-1);
+            return false;
+        });
+    }
+
+    /**
+     * Records a call once, with the outcome of its last attempt. Attempts that are retried are not
+     * recorded, whether or not the response interceptor sees their response.
+     */
+    private static final class CallRecorder {
+        private final String project;
+        private final String apiMethod;
+        // Calls are timed from their first attempt, after waiting for the rate limiter.
+        private final Stopwatch stopwatch = Stopwatch.createUnstarted();
+        private volatile boolean retrying;
+        private boolean recorded;
+
+        CallRecorder(String project, String apiMethod) {
+            this.project = project;
+            this.apiMethod = apiMethod;
+        }
+
+        synchronized void onAttempt() {
+            retrying = false;
+            if (!stopwatch.isRunning()) {
+                stopwatch.start();
+            }
+        }
+
+        void onRetry() {
+            retrying = true;
+        }
+
+        void record(int statusCode) {
+            synchronized (this) {
+                if (retrying || recorded) {
+                    return;
+                }
+                recorded = true;
+            }
+            ApiCallStatistics.record(project, apiMethod, statusCode, stopwatch.elapsed(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private static boolean retry(HttpRequest request, String project, BackOff backOff, String reason)
+            throws IOException {
+        if (!RetryBudget.forProject(project).tryRetry()) {
+            LOGGER.log(Level.FINE, "Retry budget of project " + project + " spent, not retrying " + request.getUrl());
+            return false;
+        }
+        LOGGER.log(Level.FINE, "Retrying " + request.getRequestMethod() + " " + request.getUrl() + " after " + reason);
+        try {
+            return BackOffUtils.next(Sleeper.DEFAULT, backOff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return Whether the request can be sent again without changing its outcome: reads, deletes,
+     *     requests carrying a request ID and batches, which only ever contain such requests.
+     */
+    static boolean isIdempotent(HttpRequest request) {
+        String method = request.getRequestMethod();
+        String path = request.getUrl().getRawPath();
+        return "GET".equals(method)
+                || "DELETE".equals(method)
+                || request.getUrl().getFirst(REQUEST_ID) != null
+                || isBatch(path);
+    }
+
+    /**
+     * @param path The path of a request URL.
+     * @return Whether the request is a batch request of a {@link ComputeBatcher}.
+     */
+    static boolean isBatch(String path) {
+        return path != null && path.startsWith(BATCH_PATH);
+    }
+
+    /**
+     * @param method The HTTP method of the request.
+     * @param path The path of the request URL.
+     * @return Whether the request is an instance insert or delete, or a mutation that {@link
+     *     ComputeBatcher} sends in batches, all of which accept a request ID.
+     */
+    static boolean needsRequestId(String method, String path) {
+        if (path == null) {
+            return false;
+        }
+        return ("POST".equals(method)
+                        && (path.endsWith("/instances") || path.endsWith("/createSnapshot")))
+                || ("DELETE".equals(method) && path.contains("/instances/"));
+    }
+
+    /**
+     * @param path The path of a request URL.
+     * @return The project the request is for, empty for requests not scoped to a project.
+     */
+    static String projectOf(String path) {
+        if (path == null) {
+            return "";
+        }
+        int start = path.indexOf("/projects/");
+        if (start < 0) {
+            return "";
+        }
+        start += "/projects/".length();
+        int end = path.indexOf('/', start);
+        return end < 0 ? path.substring(start) : path.substring(start, end);
+    }
+
+    static Priority priorityOf(HttpRequest request) {
+        return ApiRateLimiter.effectivePriority(priorityOf(request.getRequestMethod(), request.getUrl().getRawPath()));
+    }
+
+    /**
+     * @param method The HTTP method of the request.
+     * @param path The path of the request URL.
+     * @return The priority class of the request.
+     */
+    static Priority priorityOf(String method, String path) {
+        if (!"GET".equals(method)) {
+            return Priority.MUTATION;
+        }
+        if (path != null && (path.contains("/instances/") || path.contains("/operations/"))) {
+            return Priority.POLL;
+        }
+        return Priority.LOOKUP;
+    }
+}
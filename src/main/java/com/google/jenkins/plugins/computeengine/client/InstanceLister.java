@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Disk;
+import com.google.api.services.compute.model.DiskAggregatedList;
+import com.google.api.services.compute.model.DisksScopedList;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.InstanceAggregatedList;
+import com.google.api.services.compute.model.InstancesScopedList;
+import com.google.api.services.compute.model.Snapshot;
+import com.google.api.services.compute.model.SnapshotList;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Lists instances with a field mask, so that callers needing only a few attributes of many
+ * instances do not download and parse their metadata, disks and network interfaces. The disks and
+ * snapshots created for instances are listed the same way.
+ */
+public final class InstanceLister {
+    private final Compute compute;
+
+    InstanceLister(Compute compute) {
+        this.compute = compute;
+    }
+
+    /**
+     * Lists the instances having all of some labels, in all zones.
+     *
+     * @param projectId The project to list instances of.
+     * @param labels The labels instances must have.
+     * @param fields The instance fields to return, e.g. {@code name,zone,status}.
+     * @return The instances, with only the requested fields set.
+     * @throws IOException If the instances could not be listed.
+     */
+    public ImmutableList<Instance> listInstancesWithLabel(String projectId, Map<String, String> labels, String fields)
+            throws IOException {
+        ImmutableList.Builder<Instance> result = ImmutableList.builder();
+        String pageToken = null;
+        do {
+            InstanceAggregatedList page = compute.instances()
+                    .aggregatedList(projectId)
+                    .setFilter(labelFilter(labels))
+                    .setFields(fieldMask(fields))
+                    .setPageToken(pageToken)
+                    .execute();
+            if (page.getItems() != null) {
+                for (InstancesScopedList scoped : page.getItems().values()) {
+                    if (scoped.getInstances() != null) {
+                        result.addAll(scoped.getInstances());
+                    }
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return result.build();
+    }
+
+    /**
+     * Lists the disks having all of some labels, in all zones.
+     *
+     * @param projectId The project to list disks of.
+     * @param labels The labels disks must have.
+     * @param fields The disk fields to return, e.g. {@code name,zone,users}.
+     * @return The disks, with only the requested fields set.
+     * @throws IOException If the disks could not be listed.
+     */
+    public ImmutableList<Disk> listDisksWithLabel(String projectId, Map<String, String> labels, String fields)
+            throws IOException {
+        ImmutableList.Builder<Disk> result = ImmutableList.builder();
+        String pageToken = null;
+        do {
+            DiskAggregatedList page = compute.disks()
+                    .aggregatedList(projectId)
+                    .setFilter(labelFilter(labels))
+                    .setFields(String.format("nextPageToken,items/*/disks(%s)", fields))
+                    .setPageToken(pageToken)
+                    .execute();
+            if (page.getItems() != null) {
+                for (DisksScopedList scoped : page.getItems().values()) {
+                    if (scoped.getDisks() != null) {
+                        result.addAll(scoped.getDisks());
+                    }
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return result.build();
+    }
+
+    /**
+     * Lists the snapshots having all of some labels.
+     *
+     * @param projectId The project to list snapshots of.
+     * @param labels The labels snapshots must have.
+     * @param fields The snapshot fields to return, e.g. {@code name,creationTimestamp}.
+     * @return The snapshots, with only the requested fields set.
+     * @throws IOException If the snapshots could not be listed.
+     */
+    public ImmutableList<Snapshot> listSnapshotsWithLabel(String projectId, Map<String, String> labels, String fields)
+            throws IOException {
+        ImmutableList.Builder<Snapshot> result = ImmutableList.builder();
+        String pageToken = null;
+        do {
+            SnapshotList page = compute.snapshots()
+                    .list(projectId)
+                    .setFilter(labelFilter(labels))
+                    .setFields(String.format("nextPageToken,items(%s)", fields))
+                    .setPageToken(pageToken)
+                    .execute();
+            if (page.getItems() != null) {
+                result.addAll(page.getItems());
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return result.build();
+    }
+
+    static String labelFilter(Map<String, String> labels) {
+        return labels.entrySet().stream()
+                .map(label -> String.format("labels.%s = \"%s\"", label.getKey(), label.getValue()))
+                .collect(Collectors.joining(" AND "));
+    }
+
+    static String fieldMask(String fields) {
+        return String.format("nextPageToken,items/*/instances(%s)", fields);
+    }
+}
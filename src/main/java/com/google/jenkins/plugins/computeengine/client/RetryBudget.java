@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the retries of failed Compute API requests per project, so that retries cannot multiply
+ * the load on an API that is already throttling or failing. Every request earns {@link
+ * #RETRY_RATIO} of a retry and a retry spends a whole one, on top of a small reserve refilled at
+ * {@link #MIN_RETRIES_PER_MINUTE} so that rarely used projects can still retry.
+ */
+public final class RetryBudget {
+    static final double RETRY_RATIO =
+            Double.parseDouble(System.getProperty(RetryBudget.class.getName() + ".retryRatio", "0.1"));
+    static final int MIN_RETRIES_PER_MINUTE =
+            Integer.getInteger(RetryBudget.class.getName() + ".minRetriesPerMinute", 10);
+
+    private static final ConcurrentMap<String, RetryBudget> BUDGETS = new ConcurrentHashMap<>();
+
+    private final double retryRatio;
+    private final double reservePerMilli;
+    private final double maxBalance;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    // Guarded by this
+    private double balance;
+    private long lastRefillMillis;
+
+    RetryBudget(double retryRatio, int minRetriesPerMinute) {
+        this.retryRatio = Math.max(0, retryRatio);
+        this.reservePerMilli = Math.max(0, minRetriesPerMinute) / 60000.0;
+        // Enough for a burst of retries, without saving up retries over long busy periods.
+        this.maxBalance = 10.0 * Math.max(1, minRetriesPerMinute);
+        this.balance = Math.max(1, minRetriesPerMinute);
+        this.lastRefillMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @param projectId The project requests are sent to, empty if unknown.
+     * @return The retry budget of the project.
+     */
+    public static RetryBudget forProject(String projectId) {
+        return BUDGETS.computeIfAbsent(projectId, p -> new RetryBudget(RETRY_RATIO, MIN_RETRIES_PER_MINUTE));
+    }
+
+    /** @return Retry statistics, keyed by project. */
+    public static Map<String, RetryStatistics> getRetryStatistics() {
+        ImmutableMap.Builder<String, RetryStatistics> result = ImmutableMap.builder();
+        BUDGETS.forEach((project, budget) -> result.put(project, budget.statistics()));
+        return result.build();
+    }
+
+    /** Records a request, earning a fraction of a retry. */
+    synchronized void onRequest() {
+        refill();
+        balance = Math.min(maxBalance, balance + retryRatio);
+    }
+
+    /** @return Whether a retry may be made, in which case it is counted against the budget. */
+    synchronized boolean tryRetry() {
+        refill();
+        if (balance < 1) {
+            exhausted.incrementAndGet();
+            return false;
+        }
+        balance -= 1;
+        retries.incrementAndGet();
+        return true;
+    }
+
+    RetryStatistics statistics() {
+        return new RetryStatistics(retries.get(), exhausted.get());
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        balance = Math.min(maxBalance, balance + (now - lastRefillMillis) * reservePerMilli);
+        lastRefillMillis = now;
+    }
+
+    /** Cumulative retry counts of a project. */
+    public static final class RetryStatistics {
+        private final long retries;
+        private final long budgetExhausted;
+
+        RetryStatistics(long retries, long budgetExhausted) {
+            this.retries = retries;
+            this.budgetExhausted = budgetExhausted;
+        }
+
+        /** @return Number of retries made. */
+        public long getRetries() {
+            return retries;
+        }
+
+        /** @return Number of retries not made because the budget was spent. */
+        public long getBudgetExhausted() {
+            return budgetExhausted;
+        }
+    }
+}
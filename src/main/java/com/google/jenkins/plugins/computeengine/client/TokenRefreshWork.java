@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import com.google.jenkins.plugins.computeengine.ComputeEngineCloud;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.slaves.Cloud;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+
+/**
+ * Renews the OAuth access tokens of the credentials used by clouds before they expire, so the
+ * renewal latency and any failure happen here instead of inline in the first API call of a
+ * provisioning or launch after an idle period.
+ */
+@Extension
+@Symbol("computeEngineTokenRefreshWork")
+public class TokenRefreshWork extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(TokenRefreshWork.class.getName());
+
+    static final long REFRESH_AHEAD_SECONDS =
+            Long.getLong(TokenRefreshWork.class.getName() + ".refreshAheadSeconds", 300);
+
+    public TokenRefreshWork() {
+        super("Compute Engine access token refresh");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINEST;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void execute(TaskListener listener) {
+        // Make sure the clients of all clouds are pooled, so their tokens are renewed too.
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof ComputeEngineCloud) {
+                try {
+                    ComputeEngineCloud computeCloud = (ComputeEngineCloud) cloud;
+                    ComputeClientPool.getClient(computeCloud.getCredentialsId(), computeCloud.getHttpTransport());
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Could not create client for cloud " + cloud.name, e);
+                }
+            }
+        }
+        ComputeClientPool.refreshExpiringTokens(REFRESH_AHEAD_SECONDS);
+    }
+}
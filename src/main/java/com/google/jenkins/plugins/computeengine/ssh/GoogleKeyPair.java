@@ -36,6 +36,19 @@ public class GoogleKeyPair extends GoogleKeyCredential implements Serializable {
         return new GoogleKeyPair(keys.get("public"), Secret.fromString(keys.get("private")), user);
     }
 
+    /**
+     * Same as {@link #generate(String)}, but takes a key pair pre-generated in the background when
+     * one is available.
+     *
+     * @param user The user the key pair is for.
+     * @param algorithm The key algorithm, null for the default algorithm.
+     * @return A new key pair.
+     */
+    public static GoogleKeyPair fromPool(String user, SshKeyAlgorithm algorithm) {
+        Map<String, String> keys = SshKeyPairPool.get(SshKeyAlgorithm.orDefault(algorithm)).take();
+        return new GoogleKeyPair(keys.get("public"), Secret.fromString(keys.get("private")), user);
+    }
+
     public String getPublicKey() {
         return publicKey;
     }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.ssh;
+
+import com.jcraft.jsch.KeyPair;
+import com.trilead.ssh2.crypto.PEMDecoder;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Key algorithms supported for autogenerated SSH key pairs. */
+public enum SshKeyAlgorithm {
+    ED25519("Ed25519", "ssh-ed25519", KeyPair.ED25519, 256),
+    RSA("RSA 2048", "ssh-rsa", KeyPair.RSA, 2048);
+
+    private static final Logger LOGGER = Logger.getLogger(SshKeyAlgorithm.class.getName());
+
+    private final String displayName;
+    private final String sshName;
+    private final int jschType;
+    private final int keySize;
+    private volatile Boolean supported;
+
+    SshKeyAlgorithm(String displayName, String sshName, int jschType, int keySize) {
+        this.displayName = displayName;
+        this.sshName = sshName;
+        this.jschType = jschType;
+        this.keySize = keySize;
+    }
+
+    /** @return The algorithm to use when none is configured, Ed25519 if the runtime supports it. */
+    public static SshKeyAlgorithm getDefault() {
+        return ED25519.isSupported() ? ED25519 : RSA;
+    }
+
+    /**
+     * @param algorithm The configured algorithm, may be null.
+     * @return The configured algorithm if supported, otherwise the default algorithm.
+     */
+    public static SshKeyAlgorithm orDefault(SshKeyAlgorithm algorithm) {
+        return algorithm != null && algorithm.isSupported() ? algorithm : getDefault();
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /** @return The algorithm name used in OpenSSH public keys, e.g. {@code ssh-ed25519}. */
+    public String getSshName() {
+        return sshName;
+    }
+
+    int getJschType() {
+        return jschType;
+    }
+
+    int getKeySize() {
+        return keySize;
+    }
+
+    /**
+     * Probed once per algorithm by generating a key pair and decoding its private key with Trilead,
+     * which authenticates the launcher SSH connections.
+     *
+     * @return Whether key pairs of this algorithm can be generated and used to connect to agents.
+     */
+    public boolean isSupported() {
+        Boolean result = supported;
+        if (result == null) {
+            try {
+                String privateKey = SshKeysHelper.generate(this).get("private");
+                PEMDecoder.decodeKeyPair(privateKey.toCharArray(), null);
+                result = true;
+            } catch (IOException | RuntimeException | LinkageError e) {
+                LOGGER.log(Level.INFO, "SSH key algorithm " + displayName + " is not supported", e);
+                result = false;
+            }
+            supported = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.ssh;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of pre-generated SSH key pairs, so that provisioning does not wait for key
+ * generation. The pool is refilled by a single low priority background thread. Its target depth
+ * follows the number of key pairs taken over the last {@link #RATE_WINDOW_MILLIS}, between {@link
+ * #MIN_DEPTH} and {@link #MAX_DEPTH}, so bursts of provisioning are served from the pool while an
+ * idle controller keeps only a few keys around. There is one pool per {@link SshKeyAlgorithm}.
+ */
+final class SshKeyPairPool {
+    private static final Logger LOGGER = Logger.getLogger(SshKeyPairPool.class.getName());
+
+    static final int MIN_DEPTH = Integer.getInteger(SshKeyPairPool.class.getName() + ".minDepth", 2);
+    static final int MAX_DEPTH = Integer.getInteger(SshKeyPairPool.class.getName() + ".maxDepth", 64);
+    static final long RATE_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // Guarded by itself
+    private static final Map<SshKeyAlgorithm, SshKeyPairPool> POOLS = new EnumMap<>(SshKeyAlgorithm.class);
+
+    private final SshKeyAlgorithm algorithm;
+    private final int minDepth;
+    private final int maxDepth;
+    private final ConcurrentLinkedQueue<Map<String, String>> keys = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    // Guarded by itself
+    private final Deque<Long> takes = new ArrayDeque<>();
+    private final ExecutorService refiller;
+
+    SshKeyPairPool(SshKeyAlgorithm algorithm, int minDepth, int maxDepth) {
+        this.algorithm = algorithm;
+        this.minDepth = Math.max(0, minDepth);
+        this.maxDepth = Math.max(this.minDepth, maxDepth);
+        ThreadFactory daemon = new NamingThreadFactory(new DaemonThreadFactory(), "SshKeyPairPool.refill");
+        this.refiller = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = daemon.newThread(r);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    static SshKeyPairPool get(SshKeyAlgorithm algorithm) {
+        synchronized (POOLS) {
+            return POOLS.computeIfAbsent(algorithm, a -> new SshKeyPairPool(a, MIN_DEPTH, MAX_DEPTH));
+        }
+    }
+
+    /**
+     * Takes a key pair from the pool, generating one on the calling thread if the pool is empty.
+     *
+     * @return The public and private key, as returned by {@link SshKeysHelper#generate(SshKeyAlgorithm)}.
+     */
+    Map<String, String> take() {
+        recordTake();
+        Map<String, String> pair = keys.poll();
+        if (pair != null) {
+            size.decrementAndGet();
+        }
+        refillIfNeeded();
+        return pair != null ? pair : SshKeysHelper.generate(algorithm);
+    }
+
+    /** @return The number of key pairs the pool currently aims to hold. */
+    int targetDepth() {
+        int recentTakes;
+        synchronized (takes) {
+            expireTakes(System.currentTimeMillis());
+            recentTakes = takes.size();
+        }
+        return Math.min(maxDepth, Math.max(minDepth, recentTakes));
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private void recordTake() {
+        long now = System.currentTimeMillis();
+        synchronized (takes) {
+            expireTakes(now);
+            if (takes.size() < maxDepth) {
+                takes.addLast(now);
+            } else {
+                // Only the count up to the maximum depth matters, keep the most recent takes.
+                takes.pollFirst();
+                takes.addLast(now);
+            }
+        }
+    }
+
+    private void expireTakes(long now) {
+        while (!takes.isEmpty() && now - takes.peekFirst() > RATE_WINDOW_MILLIS) {
+            takes.pollFirst();
+        }
+    }
+
+    void refillIfNeeded() {
+        if (size.get() >= targetDepth() || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        refiller.execute(() -> {
+            try {
+                while (size.get() < targetDepth()) {
+                    keys.add(SshKeysHelper.generate(algorithm));
+                    size.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to pre-generate " + algorithm + " SSH key pair", e);
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+}
@@ -28,26 +28,29 @@ import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Map;
 
-/** Utility for generating OpenSSH RSA key pairs for use in GoogleKeyPair. */
+/** Utility for generating OpenSSH key pairs for use in GoogleKeyPair. */
 class SshKeysHelper {
-    private static final int KEY_SIZE = 2048;
 
     static Map<String, String> generate() {
+        return generate(SshKeyAlgorithm.RSA);
+    }
+
+    static Map<String, String> generate(SshKeyAlgorithm algorithm) {
         JSch jsch = new JSch();
         KeyPair pair;
         try {
-            pair = KeyPair.genKeyPair(jsch, KeyPair.RSA, KEY_SIZE);
+            pair = KeyPair.genKeyPair(jsch, algorithm.getJschType(), algorithm.getKeySize());
         } catch (JSchException e) {
             throw propagate(e);
         }
         ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
-        builder.put("public", getPublicKey(pair));
+        builder.put("public", getPublicKey(algorithm, pair));
         builder.put("private", getPrivateKey(pair));
         return builder.build();
     }
 
-    private static String getPublicKey(KeyPair pair) {
-        return "ssh-rsa " + Base64.getEncoder().encodeToString(pair.getPublicKeyBlob());
+    private static String getPublicKey(SshKeyAlgorithm algorithm, KeyPair pair) {
+        return algorithm.getSshName() + " " + Base64.getEncoder().encodeToString(pair.getPublicKeyBlob());
     }
 
     private static String getPrivateKey(KeyPair pair) {
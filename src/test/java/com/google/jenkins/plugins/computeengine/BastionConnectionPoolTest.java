@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.LocalStreamForwarder;
+import com.trilead.ssh2.ServerHostKeyVerifier;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BastionConnectionPoolTest {
+    private static final String AGENT = "10.0.0.2";
+    private static final int PORT = 22;
+    private static final BastionConfiguration BASTION = BastionConfiguration.builder()
+            .host("bastion.example.com")
+            .credentialsId("bastion-key")
+            .hostKey("ssh-ed25519 AAAAC3NzaC1lZDI1NTE5AAAAIHostKey")
+            .build();
+
+    @Mock
+    public Connection connection;
+
+    @Mock
+    public LocalStreamForwarder forwarder;
+
+    private final AtomicInteger connects = new AtomicInteger();
+
+    @Test
+    public void channelsFillConnectionsBeforeOpeningNewOnes() throws Exception {
+        when(connection.createLocalStreamForwarder(AGENT, PORT)).thenReturn(forwarder);
+        BastionConnectionPool pool = new BastionConnectionPool(this::connect);
+
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i <= BastionConnectionPool.MAX_CHANNELS_PER_CONNECTION; i++) {
+            sockets.add(pool.openChannel(BASTION, AGENT, PORT, 1000));
+        }
+        assertEquals(2, connects.get());
+        assertEquals(
+                ImmutableList.of(BastionConnectionPool.MAX_CHANNELS_PER_CONNECTION, 1),
+                pool.channelsPerConnection(BASTION));
+
+        // Closing a channel twice releases it once.
+        sockets.get(0).close();
+        sockets.get(0).close();
+        assertEquals(
+                ImmutableList.of(BastionConnectionPool.MAX_CHANNELS_PER_CONNECTION - 1, 1),
+                pool.channelsPerConnection(BASTION));
+    }
+
+    @Test
+    public void refusedChannelIsReleased() throws Exception {
+        when(connection.createLocalStreamForwarder(AGENT, PORT)).thenThrow(new IOException("refused"));
+        BastionConnectionPool pool = new BastionConnectionPool(this::connect);
+
+        assertThrows(IOException.class, () -> pool.openChannel(BASTION, AGENT, PORT, 1000));
+        assertEquals(ImmutableList.of(0), pool.channelsPerConnection(BASTION));
+    }
+
+    @Test
+    public void failedConnectionIsReleasedAndReplaced() throws Exception {
+        when(connection.createLocalStreamForwarder(AGENT, PORT)).thenReturn(forwarder);
+        BastionConnectionPool pool = new BastionConnectionPool((bastion, verifier, timeout) -> {
+            if (connects.incrementAndGet() == 1) {
+                throw new IOException("Authentication to bastion failed");
+            }
+            return connection;
+        });
+
+        assertThrows(IOException.class, () -> pool.openChannel(BASTION, AGENT, PORT, 1000));
+        pool.openChannel(BASTION, AGENT, PORT, 1000);
+        assertEquals(2, connects.get());
+        assertEquals(ImmutableList.of(1), pool.channelsPerConnection(BASTION));
+    }
+
+    @Test
+    public void idleConnectionsAreClosedOnceTimedOut() throws Exception {
+        when(connection.createLocalStreamForwarder(AGENT, PORT)).thenReturn(forwarder);
+        BastionConnectionPool pool = new BastionConnectionPool(this::connect);
+
+        Socket busy = pool.openChannel(BASTION, AGENT, PORT, 1000);
+        long later = System.currentTimeMillis() + BastionConnectionPool.IDLE_TIMEOUT_MILLIS + 1;
+        pool.closeIdle(later);
+        assertEquals(ImmutableList.of(1), pool.channelsPerConnection(BASTION));
+        verify(connection, never()).close();
+
+        busy.close();
+        pool.closeIdle(System.currentTimeMillis());
+        assertEquals(ImmutableList.of(0), pool.channelsPerConnection(BASTION));
+
+        pool.closeIdle(System.currentTimeMillis() + BastionConnectionPool.IDLE_TIMEOUT_MILLIS + 1);
+        assertTrue(pool.channelsPerConnection(BASTION).isEmpty());
+        verify(connection).close();
+    }
+
+    private Connection connect(BastionConfiguration bastion, ServerHostKeyVerifier verifier, int connectTimeoutMillis) {
+        connects.incrementAndGet();
+        return connection;
+    }
+}
@@ -15,16 +15,17 @@
 package com.google.jenkins.plugins.computeengine;
 
 import static com.google.common.collect.ImmutableList.of;
+import static com.google.jenkins.plugins.computeengine.CleanLostNodesWork.INSTANCE_FIELDS;
 import static org.junit.Assert.assertNotNull;
-import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.anyMap;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import com.google.api.client.util.DateTime;
 import com.google.api.services.compute.model.Instance;
-import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
-import org.junit.Before;
+import hudson.model.TaskListener;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -36,7 +37,9 @@ import org.mockito.junit.MockitoJUnitRunner;
 @RunWith(MockitoJUnitRunner.class)
 public class CleanLostNodesWorkTest {
 
-    private static final String TEST_PROJECT_ID = "test_project_id";
+    private static final String TEST_CLOUD_NAME = "test-cloud";
+    private static final String OLD_TIMESTAMP =
+            new DateTime(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)).toStringRfc3339();
 
     @Rule
     public JenkinsRule r = new JenkinsRule();
@@ -45,17 +48,23 @@ public class CleanLostNodesWorkTest {
     public ComputeEngineCloud cloud;
 
     @Mock
-    public ComputeClient client;
+    public TerminationQueue terminations;
+
+    private final CloudExecutor executor = new CloudExecutor("test", 1, false);
 
     private CleanLostNodesWork getWorker() {
         return r.jenkins.getExtensionList(CleanLostNodesWork.class).get(0);
     }
 
-    @Before
-    public void setup() {
-        when(cloud.getClient()).thenReturn(client);
-        when(cloud.getProjectId()).thenReturn(TEST_PROJECT_ID);
-        when(cloud.getInstanceId()).thenReturn("234234355");
+    private void addCloud() {
+        when(cloud.getCloudName()).thenReturn(TEST_CLOUD_NAME);
+        when(cloud.getExecutor()).thenReturn(executor);
+        r.jenkins.clouds.add(cloud);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
     }
 
     @Test
@@ -65,55 +74,80 @@ public class CleanLostNodesWorkTest {
 
     @Test
     public void shouldRunWithoutClouds() {
-        getWorker().doRun();
+        getWorker().execute(TaskListener.NULL);
     }
 
     @Test
     public void shouldNotCleanAnyInstance() throws Exception {
         final String instanceName = "inst-1";
-        Instance remoteInstance = new Instance().setName(instanceName).setStatus("RUNNING");
-        when(client.listInstancesWithLabel(eq(TEST_PROJECT_ID), anyMap())).thenReturn(of(remoteInstance));
+        Instance remoteInstance =
+                new Instance().setName(instanceName).setStatus("RUNNING").setCreationTimestamp(OLD_TIMESTAMP);
+        when(cloud.listCloudInstances(INSTANCE_FIELDS)).thenReturn(of(remoteInstance));
 
         ComputeEngineInstance localInstance = Mockito.mock(ComputeEngineInstance.class);
-        when(localInstance.getCloud()).thenReturn(cloud);
+        when(localInstance.getCloudName()).thenReturn(TEST_CLOUD_NAME);
         when(localInstance.getNodeName()).thenReturn(instanceName);
         when(localInstance.getNumExecutors()).thenReturn(0);
 
-        r.jenkins.clouds.add(cloud);
+        addCloud();
         r.jenkins.addNode(localInstance);
 
-        getWorker().doRun();
-        verify(client).listInstancesWithLabel(eq(TEST_PROJECT_ID), anyMap());
-        verifyNoMoreInteractions(client);
+        getWorker().execute(TaskListener.NULL);
+        verify(cloud).listCloudInstances(INSTANCE_FIELDS);
+        verifyNoInteractions(terminations);
     }
 
     @Test
     public void shouldCleanLostInstance() throws Exception {
         final String instanceName = "inst-2";
         final String zone = "test-zone";
-        Instance remoteInstance =
-                new Instance().setName(instanceName).setZone(zone).setStatus("RUNNING");
-        when(client.listInstancesWithLabel(eq(TEST_PROJECT_ID), anyMap())).thenReturn(of(remoteInstance));
-
-        r.jenkins.clouds.add(cloud);
-
-        getWorker().doRun();
-        verify(client).listInstancesWithLabel(eq(TEST_PROJECT_ID), anyMap());
-        verify(client).terminateInstanceAsync(eq(TEST_PROJECT_ID), eq(zone), eq(instanceName));
+        Instance remoteInstance = new Instance()
+                .setName(instanceName)
+                .setZone("https://www.googleapis.com/compute/v1/projects/test/zones/" + zone)
+                .setStatus("RUNNING")
+                .setCreationTimestamp(OLD_TIMESTAMP);
+        when(cloud.listCloudInstances(INSTANCE_FIELDS)).thenReturn(of(remoteInstance));
+        when(cloud.getTerminationQueue()).thenReturn(terminations);
+
+        addCloud();
+
+        getWorker().execute(TaskListener.NULL);
+        verify(cloud).listCloudInstances(INSTANCE_FIELDS);
+        verify(terminations).enqueue(zone, instanceName);
     }
 
     @Test
     public void shouldNotCleanStoppingInstance() throws Exception {
         final String instanceName = "inst-2";
         final String zone = "test-zone";
-        Instance remoteInstance =
-                new Instance().setName(instanceName).setZone(zone).setStatus("STOPPING");
-        when(client.listInstancesWithLabel(eq(TEST_PROJECT_ID), anyMap())).thenReturn(of(remoteInstance));
-
-        r.jenkins.clouds.add(cloud);
+        Instance remoteInstance = new Instance()
+                .setName(instanceName)
+                .setZone(zone)
+                .setStatus("STOPPING")
+                .setCreationTimestamp(OLD_TIMESTAMP);
+        when(cloud.listCloudInstances(INSTANCE_FIELDS)).thenReturn(of(remoteInstance));
+
+        addCloud();
+
+        getWorker().execute(TaskListener.NULL);
+        verify(cloud).listCloudInstances(INSTANCE_FIELDS);
+        verifyNoInteractions(terminations);
+    }
 
-        getWorker().doRun();
-        verify(client).listInstancesWithLabel(eq(TEST_PROJECT_ID), anyMap());
-        verifyNoMoreInteractions(client);
+    @Test
+    public void shouldNotCleanYoungInstance() throws Exception {
+        final String instanceName = "inst-3";
+        Instance remoteInstance = new Instance()
+                .setName(instanceName)
+                .setZone("test-zone")
+                .setStatus("RUNNING")
+                .setCreationTimestamp(new DateTime(System.currentTimeMillis()).toStringRfc3339());
+        when(cloud.listCloudInstances(INSTANCE_FIELDS)).thenReturn(of(remoteInstance));
+
+        addCloud();
+
+        getWorker().execute(TaskListener.NULL);
+        verify(cloud).listCloudInstances(INSTANCE_FIELDS);
+        verifyNoInteractions(terminations);
     }
 }
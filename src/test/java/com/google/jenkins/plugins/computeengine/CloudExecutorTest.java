@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class CloudExecutorTest {
+
+    @Test
+    public void tasksBeyondThreadsAndQueueAreRejected() throws Exception {
+        CloudExecutor executor = new CloudExecutor("test", 1, 1, false);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> first = executor.submit(() -> {
+                running.countDown();
+                return release.await(10, TimeUnit.SECONDS);
+            });
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+            Future<?> queued = executor.submit(() -> true);
+            assertEquals(1, executor.getActiveCount());
+            assertEquals(1, executor.getQueueDepth());
+            assertEquals(1.0, executor.getSaturation(), 0.0);
+            assertEquals(1, executor.getSaturatedCount());
+
+            try {
+                executor.execute(() -> {});
+                fail("Expected the task to be rejected");
+            } catch (RejectedExecutionException expected) {
+                assertEquals(1, executor.getRejectedCount());
+            }
+
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            queued.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void watchersDoNotUseBoundedThreads() throws Exception {
+        CloudExecutor executor = new CloudExecutor("test", 1, 1, false);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Boolean> watcher = executor.watch(() -> {
+                try {
+                    return release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertTrue(executor.submit(() -> true).get(10, TimeUnit.SECONDS));
+            assertFalse(watcher.isDone());
+
+            release.countDown();
+            assertTrue(watcher.get(10, TimeUnit.SECONDS));
+            assertEquals(0, executor.getWatcherCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void fallsBackToPlatformThreadsWithoutVirtualThreadSupport() throws Exception {
+        CloudExecutor executor = new CloudExecutor("test", 2, true);
+        try {
+            assertEquals(CloudExecutor.virtualThreadFactory("test-") != null, executor.isVirtualThreads());
+            assertTrue(executor.submit(() -> true).get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.trilead.ssh2.Connection;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ComputeEngineComputerLauncherTest {
+    private static final String SLOW_HOST = "10.0.0.1";
+    private static final String FAILING_HOST = "35.0.0.1";
+
+    @Mock
+    public Connection connection;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch slowAttemptInterrupted = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void slowHostWinsOverFailingHost() throws Exception {
+        Connection conn = ComputeEngineComputerLauncher.connectToFirstAvailable(
+                ImmutableList.of(SLOW_HOST, FAILING_HOST),
+                host -> connect(host, 1000),
+                executor,
+                System.currentTimeMillis() + 10000);
+
+        assertSame(connection, conn);
+    }
+
+    @Test
+    public void slowHostIsCancelledOnceDeadlinePasses() throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            ComputeEngineComputerLauncher.connectToFirstAvailable(
+                    ImmutableList.of(SLOW_HOST, FAILING_HOST),
+                    host -> connect(host, 60000),
+                    executor,
+                    start + 1000);
+            fail("Expected the connection to time out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out"));
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertTrue(slowAttemptInterrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void attemptQueuedOnBusyExecutorDoesNotHangLaunch() throws Exception {
+        // A single busy thread: the attempts stay queued behind it.
+        ExecutorService busy = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        busy.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            ComputeEngineComputerLauncher.connectToFirstAvailable(
+                    ImmutableList.of(SLOW_HOST, FAILING_HOST),
+                    host -> connect(host, 0),
+                    busy,
+                    System.currentTimeMillis() + 1000);
+            fail("Expected the connection to time out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out"));
+        } finally {
+            release.countDown();
+            busy.shutdownNow();
+        }
+    }
+
+    private Connection connect(String host, long slowMillis) throws IOException {
+        if (FAILING_HOST.equals(host)) {
+            throw new IOException("Connection refused");
+        }
+        try {
+            Thread.sleep(slowMillis);
+        } catch (InterruptedException e) {
+            slowAttemptInterrupted.countDown();
+            throw new IOException("Interrupted", e);
+        }
+        return connection;
+    }
+}
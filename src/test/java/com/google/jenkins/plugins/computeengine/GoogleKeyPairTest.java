@@ -19,8 +19,11 @@ package com.google.jenkins.plugins.computeengine;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 import com.google.jenkins.plugins.computeengine.ssh.GoogleKeyPair;
+import com.google.jenkins.plugins.computeengine.ssh.SshKeyAlgorithm;
+import com.trilead.ssh2.crypto.PEMDecoder;
 import hudson.util.XStream2;
 import java.io.File;
 import java.nio.charset.StandardCharsets;
@@ -44,6 +47,17 @@ public class GoogleKeyPairTest {
         assert (gkp.getPublicKey().contains("user"));
     }
 
+    @WithoutJenkins
+    @Test
+    public void ed25519KeyPairGeneration() throws Exception {
+        assumeTrue(SshKeyAlgorithm.ED25519.isSupported());
+        GoogleKeyPair gkp = GoogleKeyPair.fromPool("user", SshKeyAlgorithm.ED25519);
+        assertTrue(gkp.getPublicKey().startsWith("user:ssh-ed25519 "));
+        assertTrue(gkp.getPrivateKey().getPlainText().contains("PRIVATE KEY"));
+        // The launchers authenticate with Trilead, which must be able to read the key.
+        assertNotNull(PEMDecoder.decodeKeyPair(gkp.getPrivateKey().getPlainText().toCharArray(), null));
+    }
+
     @Issue("SECURITY-2045")
     @Test
     public void privateKeyNotStoredAsPlainTextOnDisk() throws Exception {
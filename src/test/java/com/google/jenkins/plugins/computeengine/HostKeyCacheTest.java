@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.compute.model.GuestAttributesEntry;
+import com.google.cloud.graphite.platforms.plugin.client.model.InstanceResourceData;
+import com.google.cloud.graphite.platforms.plugin.client.util.ClientUtil;
+import com.google.common.collect.ImmutableList;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HostKeyCacheTest {
+    private static final String PROJECT = "test-project";
+    private static final String ZONE = "us-west1-a";
+    private static final String INSTANCE = "test-instance";
+    private static final InstanceResourceData INSTANCE_DATA = ClientUtil.parseInstanceResourceData(String.format(
+                    "https://www.googleapis.com/compute/v1/projects/%s/zones/%s/instances/%s", PROJECT, ZONE, INSTANCE))
+            .get();
+    private static final String ED25519_KEY = "AAAAC3NzaC1lZDI1NTE5AAAAIHostKey";
+
+    @Mock
+    public ComputeBatcher batcher;
+
+    private final ScheduledExecutorService completer = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        completer.shutdownNow();
+    }
+
+    @Test
+    public void lookupWaitsForFetchInFlight() {
+        CompletableFuture<List<GuestAttributesEntry>> attributes = new CompletableFuture<>();
+        when(batcher.getGuestAttributesAsync(eq(PROJECT), eq(ZONE), eq(INSTANCE), anyString()))
+                .thenReturn(attributes);
+        completer.schedule(
+                () -> attributes.complete(ImmutableList.of(hostKey("ssh-ed25519", ED25519_KEY))),
+                500,
+                TimeUnit.MILLISECONDS);
+
+        try (HostKeyCache cache = new HostKeyCache(batcher, INSTANCE_DATA, 10000)) {
+            assertEquals(Optional.of(ED25519_KEY), cache.get("ssh-ed25519", 10000));
+        }
+    }
+
+    @Test
+    public void lookupFetchesRightAwayInsteadOfWaitingForRetry() {
+        when(batcher.getGuestAttributesAsync(eq(PROJECT), eq(ZONE), eq(INSTANCE), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(ImmutableList.of()))
+                .thenReturn(CompletableFuture.completedFuture(ImmutableList.of(hostKey("ssh-ed25519", ED25519_KEY))));
+
+        try (HostKeyCache cache = new HostKeyCache(batcher, INSTANCE_DATA, 10000)) {
+            assertFalse(cache.get("ssh-ed25519", 10000).isPresent());
+            long start = System.nanoTime();
+            assertEquals(Optional.of(ED25519_KEY), cache.get("ssh-ed25519", 10000));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2500);
+        }
+    }
+
+    @Test
+    public void lookupWaitIsCappedByCaller() {
+        when(batcher.getGuestAttributesAsync(eq(PROJECT), eq(ZONE), eq(INSTANCE), anyString()))
+                .thenReturn(new CompletableFuture<>());
+
+        try (HostKeyCache cache = new HostKeyCache(batcher, INSTANCE_DATA, 10000)) {
+            long start = System.nanoTime();
+            assertFalse(cache.get("ssh-ed25519", 200).isPresent());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        }
+    }
+
+    @Test
+    public void lookupGivesUpAfterBoundedWait() {
+        when(batcher.getGuestAttributesAsync(eq(PROJECT), eq(ZONE), eq(INSTANCE), anyString()))
+                .thenReturn(new CompletableFuture<>());
+
+        try (HostKeyCache cache = new HostKeyCache(batcher, INSTANCE_DATA, 200)) {
+            long start = System.nanoTime();
+            assertFalse(cache.get("ssh-ed25519", 10000).isPresent());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        }
+    }
+
+    @Test
+    public void lookupOfUnpublishedAlgorithmReturnsEmptyOnceFetched() {
+        when(batcher.getGuestAttributesAsync(eq(PROJECT), eq(ZONE), eq(INSTANCE), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(
+                        ImmutableList.of(hostKey("ssh-ed25519", ED25519_KEY), otherAttribute())));
+
+        try (HostKeyCache cache = new HostKeyCache(batcher, INSTANCE_DATA, 10000)) {
+            assertFalse(cache.get("ssh-rsa", 10000).isPresent());
+            verify(batcher, timeout(5000)).getGuestAttributesAsync(eq(PROJECT), eq(ZONE), eq(INSTANCE), anyString());
+            assertEquals(Optional.of(ED25519_KEY), cache.get("ssh-ed25519", 10000));
+            assertEquals("ssh-ed25519", cache.preferredAlgorithms(new String[] {"ssh-rsa", "ssh-ed25519"})[0]);
+        }
+    }
+
+    private static GuestAttributesEntry hostKey(String algorithm, String key) {
+        return new GuestAttributesEntry()
+                .setNamespace(HostKeyCache.GUEST_ATTRIBUTE_HOST_KEY_NAMESPACE)
+                .setKey(algorithm)
+                .setValue(key);
+    }
+
+    private static GuestAttributesEntry otherAttribute() {
+        return new GuestAttributesEntry().setNamespace("other").setKey("ssh-rsa").setValue("unrelated");
+    }
+}
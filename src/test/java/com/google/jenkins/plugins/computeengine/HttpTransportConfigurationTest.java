@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import org.junit.Test;
+
+public class HttpTransportConfigurationTest {
+
+    @Test
+    public void createsPooledTransport() {
+        HttpTransportConfiguration configuration = new HttpTransportConfiguration();
+        configuration.setMaxConnectionsPerRoute(10);
+
+        assertTrue(configuration.createTransport() instanceof ApacheHttpTransport);
+    }
+
+    @Test
+    public void equalConfigurationsShareClients() {
+        // Pooled clients are keyed by the transport configuration.
+        HttpTransportConfiguration first = new HttpTransportConfiguration();
+        HttpTransportConfiguration second = new HttpTransportConfiguration();
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+
+        second.setReadTimeoutMillis(1000);
+        assertNotEquals(first, second);
+    }
+}
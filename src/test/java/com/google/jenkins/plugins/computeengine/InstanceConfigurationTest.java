@@ -18,12 +18,16 @@ package com.google.jenkins.plugins.computeengine;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 
 import com.google.api.services.compute.model.AcceleratorType;
 import com.google.api.services.compute.model.DiskType;
+import com.google.api.services.compute.model.Duration;
 import com.google.api.services.compute.model.Image;
 import com.google.api.services.compute.model.Instance;
 import com.google.api.services.compute.model.InstanceProperties;
@@ -31,7 +35,9 @@ import com.google.api.services.compute.model.InstanceTemplate;
 import com.google.api.services.compute.model.MachineType;
 import com.google.api.services.compute.model.Metadata;
 import com.google.api.services.compute.model.Network;
+import com.google.api.services.compute.model.Operation;
 import com.google.api.services.compute.model.Region;
+import com.google.api.services.compute.model.Scheduling;
 import com.google.api.services.compute.model.Subnetwork;
 import com.google.api.services.compute.model.Zone;
 import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
@@ -43,6 +49,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import jenkins.slaves.JnlpAgentReceiver;
 import org.htmlunit.html.HtmlPage;
 import org.junit.Before;
 import org.junit.Rule;
@@ -284,6 +291,55 @@ public class InstanceConfigurationTest {
         assertNull(instanceConfiguration.getWindowsConfiguration());
     }
 
+    @Test
+    public void testInstancePrototypeIsNotShared() throws Exception {
+        InstanceConfiguration instanceConfiguration = instanceConfigurationBuilder().build();
+        Instance first = instanceConfiguration.instance();
+        first.getNetworkInterfaces().get(0).setSubnetwork("changed");
+        first.getDisks().get(0).getInitializeParams().setDiskSizeGb(100L);
+
+        Instance second = instanceConfiguration.instance();
+        assertNotEquals(first.getName(), second.getName());
+        assertEquals(SUBNETWORK_NAME, second.getNetworkInterfaces().get(0).getSubnetwork());
+        assertEquals(BOOT_DISK_SIZE_GB, second.getDisks().get(0).getInitializeParams().getDiskSizeGb());
+        assertEquals(instanceConfiguration.buildPrototype(), instanceConfiguration.prototype());
+    }
+
+    @Test
+    public void testProvisionedLaunchTimeout() throws Exception {
+        Mockito.when(computeClient.insertInstance(eq(PROJECT_ID), any(), any()))
+                .thenReturn(new Operation().setName("insert").setZone(ZONE));
+
+        ComputeEngineInstance node = instanceConfigurationBuilder().build().provision();
+        assertEquals(Integer.parseInt(LAUNCH_TIMEOUT_SECONDS_STR) * 1000L, node.getLaunchTimeoutMillis());
+    }
+
+    @Test
+    public void testInstanceMaxRunDuration() throws Exception {
+        Scheduling unlimited = instanceConfigurationBuilder().build().instance().getScheduling();
+        assertNull(unlimited.get(InstanceConfiguration.MAX_RUN_DURATION_KEY));
+
+        // The run duration of a running instance cannot be extended, so reused agents are not limited.
+        Scheduling reused = instanceConfigurationBuilder()
+                .maxRunDurationMinutesStr("60")
+                .build()
+                .instance()
+                .getScheduling();
+        assertNull(reused.get(InstanceConfiguration.MAX_RUN_DURATION_KEY));
+
+        // One-shot agents also get the launch timeout.
+        Scheduling oneShot = instanceConfigurationBuilder()
+                .maxRunDurationMinutesStr("60")
+                .oneShot(true)
+                .build()
+                .instance()
+                .getScheduling();
+        assertEquals(
+                3600L + Integer.parseInt(LAUNCH_TIMEOUT_SECONDS_STR),
+                (long) ((Duration) oneShot.get(InstanceConfiguration.MAX_RUN_DURATION_KEY)).getSeconds());
+        assertEquals("DELETE", oneShot.get(InstanceConfiguration.INSTANCE_TERMINATION_ACTION_KEY));
+    }
+
     @Test
     public void testInstanceMetadata() throws Exception {
         InstanceConfiguration instanceConfiguration =
@@ -300,6 +356,94 @@ public class InstanceConfigurationTest {
         assertEquals(sshKeys.length, 1);
     }
 
+    @Test
+    public void testInboundAgentInstanceMetadata() throws Exception {
+        InboundAgentConfiguration inbound = new InboundAgentConfiguration();
+        inbound.setWebSocket(true);
+        inbound.setJenkinsUrl("https://jenkins.example.com");
+        Instance instance = instanceConfigurationBuilder()
+                .inboundAgentConfiguration(inbound)
+                .build()
+                .instance();
+
+        assertFalse(instance.getMetadata().getItems().stream()
+                .anyMatch(item -> item.getKey().equals(InstanceConfiguration.SSH_METADATA_KEY)));
+
+        Optional<String> jenkinsUrl = instance.getMetadata().getItems().stream()
+                .filter(item -> item.getKey().equals(AgentStartupScripts.METADATA_JENKINS_URL_KEY))
+                .map(item -> item.getValue())
+                .findFirst();
+        assertTrue(jenkinsUrl.isPresent());
+        assertEquals("https://jenkins.example.com/", jenkinsUrl.get());
+
+        Optional<String> secret = instance.getMetadata().getItems().stream()
+                .filter(item -> item.getKey().equals(AgentStartupScripts.METADATA_AGENT_SECRET_KEY))
+                .map(item -> item.getValue())
+                .findFirst();
+        assertTrue(secret.isPresent());
+        assertEquals(JnlpAgentReceiver.SLAVE_SECRET.mac(instance.getName()), secret.get());
+
+        Optional<String> startupScript = instance.getMetadata().getItems().stream()
+                .filter(item -> item.getKey().equals(InstanceConfiguration.METADATA_LINUX_STARTUP_SCRIPT_KEY))
+                .map(item -> item.getValue())
+                .findFirst();
+        assertTrue(startupScript.isPresent());
+        assertTrue(startupScript.get().startsWith(STARTUP_SCRIPT));
+        assertTrue(startupScript.get().contains("-webSocket"));
+    }
+
+    @Test
+    public void testInboundAgentWindowsSecretIsPassedAsFile() {
+        String script = AgentStartupScripts.inboundWindows(new InboundAgentConfiguration(), "C:\\jenkins", "java");
+
+        assertTrue(script.contains("@('-secret', ('@' + $secretFile)"));
+        assertFalse(script.contains("$agentSecret"));
+    }
+
+    @Test
+    public void testAgentJarPrefetchStartupScript() throws Exception {
+        Instance instance = instanceConfigurationBuilder()
+                .prefetchAgentJar(true)
+                .build()
+                .instance();
+
+        Optional<String> jenkinsUrl = instance.getMetadata().getItems().stream()
+                .filter(item -> item.getKey().equals(AgentStartupScripts.METADATA_JENKINS_URL_KEY))
+                .map(item -> item.getValue())
+                .findFirst();
+        assertTrue(jenkinsUrl.isPresent());
+        assertEquals(r.jenkins.getRootUrl(), jenkinsUrl.get());
+
+        Optional<String> startupScript = instance.getMetadata().getItems().stream()
+                .filter(item -> item.getKey().equals(InstanceConfiguration.METADATA_LINUX_STARTUP_SCRIPT_KEY))
+                .map(item -> item.getValue())
+                .findFirst();
+        assertTrue(startupScript.isPresent());
+        assertEquals(STARTUP_SCRIPT + "\n" + AgentStartupScripts.agentJarPrefetchLinux(), startupScript.get());
+    }
+
+    @Test
+    public void testAgentJarPrefetchSkipsNonShellStartupScript() throws Exception {
+        String pythonScript = "#!/usr/bin/env python3\nprint('hello')\n";
+        Instance instance = instanceConfigurationBuilder()
+                .startupScript(pythonScript)
+                .prefetchAgentJar(true)
+                .build()
+                .instance();
+
+        assertFalse(instance.getMetadata().getItems().stream()
+                .anyMatch(item -> item.getKey().equals(AgentStartupScripts.METADATA_JENKINS_URL_KEY)));
+        Optional<String> startupScript = instance.getMetadata().getItems().stream()
+                .filter(item -> item.getKey().equals(InstanceConfiguration.METADATA_LINUX_STARTUP_SCRIPT_KEY))
+                .map(item -> item.getValue())
+                .findFirst();
+        assertEquals(Optional.of(pythonScript), startupScript);
+
+        assertTrue(AgentStartupScripts.canPrepend("#!/usr/bin/env bash\necho hello", false));
+        assertTrue(AgentStartupScripts.canPrepend("#! /bin/sh -e\necho hello", false));
+        assertFalse(AgentStartupScripts.canPrepend("#!/usr/bin/python3\nprint('hello')", false));
+    }
+
     public static InstanceConfiguration.Builder instanceConfigurationBuilder() {
         return InstanceConfiguration.builder()
                 .namePrefix(NAME_PREFIX)
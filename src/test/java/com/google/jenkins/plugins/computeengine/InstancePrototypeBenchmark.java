@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import com.google.api.services.compute.model.Instance;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares building the invariant parts of an instance for every provision with cloning the
+ * precomputed prototype.
+ */
+@JmhBenchmark
+public class InstancePrototypeBenchmark {
+
+    @State(Scope.Thread)
+    public static class ConfigurationState {
+        InstanceConfiguration configuration;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            configuration = InstanceConfiguration.builder()
+                    .namePrefix("benchmark")
+                    .zone("https://www.googleapis.com/compute/v1/projects/test-project/zones/us-west1-a")
+                    .machineType("https://www.googleapis.com/compute/v1/projects/test-project/zones/us-west1-a"
+                            + "/machineTypes/n1-standard-1")
+                    .description("benchmark")
+                    .bootDiskType("pd-standard")
+                    .bootDiskAutoDelete(true)
+                    .bootDiskSourceImageName("projects/debian-cloud/global/images/debian-12")
+                    .bootDiskSizeGbStr("10")
+                    .networkConfiguration(new AutofilledNetworkConfiguration("default", "test-subnetwork"))
+                    .networkInterfaceIpStackMode(new NetworkInterfaceSingleStack(true))
+                    .networkTags("tag1 tag2")
+                    .serviceAccountEmail("test-service-account")
+                    .acceleratorConfiguration(new AcceleratorConfiguration("test-gpu", "1"))
+                    .minCpuPlatform("Intel Skylake")
+                    .build();
+        }
+    }
+
+    @Benchmark
+    public Instance buildEachTime(ConfigurationState state) {
+        return state.configuration.buildPrototype();
+    }
+
+    @Benchmark
+    public Instance clonePrototype(ConfigurationState state) {
+        return state.configuration.prototype().clone();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.compute.model.InstanceTemplate;
+import com.google.cloud.graphite.platforms.plugin.client.ComputeClient;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InstanceTemplateCacheTest {
+
+    private static final String PROJECT_ID = "test-project";
+    private static final String TEMPLATE_NAME = "test-template";
+
+    @Mock
+    public ComputeClient client;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void templateIsFetchedOnceWithinTtl() throws Exception {
+        when(client.getTemplate(PROJECT_ID, TEMPLATE_NAME)).thenReturn(new InstanceTemplate().setName(TEMPLATE_NAME));
+        InstanceTemplateCache cache = new InstanceTemplateCache(() -> client, executor, 300);
+
+        InstanceTemplate first = cache.get(PROJECT_ID, TEMPLATE_NAME);
+        InstanceTemplate second = cache.get(PROJECT_ID, TEMPLATE_NAME);
+
+        assertEquals(TEMPLATE_NAME, second.getName());
+        assertNotSame(first, second);
+        verify(client, times(1)).getTemplate(PROJECT_ID, TEMPLATE_NAME);
+
+        cache.invalidateAll();
+        cache.get(PROJECT_ID, TEMPLATE_NAME);
+        verify(client, times(2)).getTemplate(PROJECT_ID, TEMPLATE_NAME);
+    }
+
+    @Test
+    public void zeroTtlDisablesCaching() throws Exception {
+        when(client.getTemplate(PROJECT_ID, TEMPLATE_NAME)).thenReturn(new InstanceTemplate().setName(TEMPLATE_NAME));
+        InstanceTemplateCache cache = new InstanceTemplateCache(() -> client, executor, 0);
+
+        cache.get(PROJECT_ID, TEMPLATE_NAME);
+        cache.get(PROJECT_ID, TEMPLATE_NAME);
+
+        verify(client, times(2)).getTemplate(PROJECT_ID, TEMPLATE_NAME);
+    }
+
+    @Test
+    public void failedRefreshKeepsLastGoodCopy() throws Exception {
+        when(client.getTemplate(PROJECT_ID, TEMPLATE_NAME))
+                .thenReturn(new InstanceTemplate().setName(TEMPLATE_NAME))
+                .thenThrow(new IOException("unavailable"));
+        InstanceTemplateCache cache = new InstanceTemplateCache(() -> client, executor, 1);
+
+        cache.get(PROJECT_ID, TEMPLATE_NAME);
+        Thread.sleep(1100);
+        // Expired, served from the cache while the refresh runs in the background.
+        assertEquals(TEMPLATE_NAME, cache.get(PROJECT_ID, TEMPLATE_NAME).getName());
+        verify(client, Mockito.timeout(5000).times(2)).getTemplate(PROJECT_ID, TEMPLATE_NAME);
+        assertEquals(TEMPLATE_NAME, cache.get(PROJECT_ID, TEMPLATE_NAME).getName());
+    }
+
+    @Test
+    public void rejectedRefreshKeepsLastGoodCopy() throws Exception {
+        when(client.getTemplate(PROJECT_ID, TEMPLATE_NAME)).thenReturn(new InstanceTemplate().setName(TEMPLATE_NAME));
+        InstanceTemplateCache cache = new InstanceTemplateCache(
+                () -> client,
+                task -> {
+                    throw new RejectedExecutionException("saturated");
+                },
+                1);
+
+        cache.get(PROJECT_ID, TEMPLATE_NAME);
+        Thread.sleep(1100);
+        assertEquals(TEMPLATE_NAME, cache.get(PROJECT_ID, TEMPLATE_NAME).getName());
+        // The refresh is retried later rather than on every lookup.
+        assertEquals(TEMPLATE_NAME, cache.get(PROJECT_ID, TEMPLATE_NAME).getName());
+        verify(client, times(1)).getTemplate(PROJECT_ID, TEMPLATE_NAME);
+    }
+}
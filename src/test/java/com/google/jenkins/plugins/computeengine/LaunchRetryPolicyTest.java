@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LaunchRetryPolicyTest {
+
+    @Test
+    public void backoffGrowsExponentiallyUpToMaximum() {
+        LaunchRetryPolicy policy = new LaunchRetryPolicy();
+        policy.setInitialBackoffMillis(100);
+        policy.setMaxBackoffMillis(500);
+        policy.setBackoffMultiplier(2.0);
+        policy.setJitterFactor(0);
+
+        LaunchRetryPolicy.Backoff backoff = policy.backoff(0, Long.MAX_VALUE);
+        assertEquals(100, backoff.nextBackoffMillis());
+        assertEquals(200, backoff.nextBackoffMillis());
+        assertEquals(400, backoff.nextBackoffMillis());
+        assertEquals(500, backoff.nextBackoffMillis());
+        assertEquals(500, backoff.nextBackoffMillis());
+    }
+
+    @Test
+    public void backoffJitterStaysWithinFactor() {
+        LaunchRetryPolicy policy = new LaunchRetryPolicy();
+        policy.setInitialBackoffMillis(1000);
+        policy.setBackoffMultiplier(1.0);
+        policy.setJitterFactor(0.2);
+
+        LaunchRetryPolicy.Backoff backoff = policy.backoff(0, Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++) {
+            long next = backoff.nextBackoffMillis();
+            assertTrue(next >= 800 && next <= 1200);
+        }
+    }
+
+    @Test
+    public void phaseBudgetAndDeadlineBoundAttempts() throws Exception {
+        LaunchRetryPolicy policy = new LaunchRetryPolicy();
+        policy.setConnectTimeoutMillis(10000);
+
+        LaunchRetryPolicy.Backoff expired = policy.backoff(0, System.currentTimeMillis() - 1);
+        assertTrue(expired.isExpired());
+        assertFalse(expired.awaitNextAttempt());
+
+        LaunchRetryPolicy.Backoff budgeted = policy.backoff(1, Long.MAX_VALUE);
+        assertFalse(budgeted.isExpired());
+        assertTrue(budgeted.remainingMillis() <= 1000);
+        assertTrue(budgeted.connectTimeoutMillis() <= 1000);
+    }
+}
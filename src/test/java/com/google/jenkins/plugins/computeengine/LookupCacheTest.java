@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class LookupCacheTest {
+
+    @Test
+    public void listIsLoadedOncePerKey() throws Exception {
+        LookupCache cache = new LookupCache(TimeUnit.MINUTES.toMillis(10));
+        AtomicInteger loads = new AtomicInteger();
+        LookupCache.Loader<String> loader = () -> {
+            loads.incrementAndGet();
+            return ImmutableList.of("us-west1");
+        };
+
+        List<String> first = cache.list(LookupCache.key("creds", "regions", "project"), loader);
+        List<String> second = cache.list(LookupCache.key("creds", "regions", "project"), loader);
+        cache.list(LookupCache.key("creds", "regions", "other-project"), loader);
+
+        assertSame(first, second);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void concurrentLookupsShareOneLoad() throws Exception {
+        LookupCache cache = new LookupCache(TimeUnit.MINUTES.toMillis(10));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> key = LookupCache.key("creds", "zones", "project", "us-west1");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> cache.list(key, () -> {
+                    loads.incrementAndGet();
+                    release.await();
+                    return ImmutableList.of("us-west1-a");
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<List<String>> result : results) {
+                assertEquals(ImmutableList.of("us-west1-a"), result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        LookupCache cache = new LookupCache(TimeUnit.MINUTES.toMillis(10));
+        List<String> key = LookupCache.key("creds", "images", "project");
+        try {
+            cache.list(key, () -> {
+                throw new IOException("unavailable");
+            });
+            fail("Expected the load failure to be thrown");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertEquals(ImmutableList.of("image"), cache.list(key, () -> ImmutableList.of("image")));
+    }
+
+    @Test
+    public void invalidateDropsListsOfCredentials() throws Exception {
+        LookupCache cache = new LookupCache(TimeUnit.MINUTES.toMillis(10));
+        AtomicInteger loads = new AtomicInteger();
+        LookupCache.Loader<String> loader = () -> {
+            loads.incrementAndGet();
+            return ImmutableList.of("network");
+        };
+        cache.list(LookupCache.key("creds", "networks", "project"), loader);
+        cache.list(LookupCache.key("other", "networks", "project"), loader);
+
+        cache.invalidate("creds");
+        cache.list(LookupCache.key("creds", "networks", "project"), loader);
+        cache.list(LookupCache.key("other", "networks", "project"), loader);
+
+        assertEquals(3, loads.get());
+    }
+}
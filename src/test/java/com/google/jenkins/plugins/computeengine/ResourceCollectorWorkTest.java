@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static com.google.jenkins.plugins.computeengine.ComputeEngineCloud.CLOUD_ID_LABEL_KEY;
+import static com.google.jenkins.plugins.computeengine.ComputeEngineCloud.CONFIG_LABEL_KEY;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.compute.model.Disk;
+import com.google.api.services.compute.model.Operation;
+import com.google.api.services.compute.model.Snapshot;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResourceCollectorWorkTest {
+    private static final String PROJECT = "test-project";
+    private static final String ZONE_URL = "https://www.googleapis.com/compute/v1/projects/test-project/zones/z1";
+    private static final long NOW = TimeUnit.DAYS.toMillis(1000);
+
+    @Mock
+    public ComputeEngineCloud cloud;
+
+    @Mock
+    public ComputeBatcher batcher;
+
+    @Mock
+    public InstanceConfiguration keptDisks;
+
+    @Mock
+    public InstanceConfiguration deletedDisks;
+
+    @Before
+    public void setup() {
+        when(cloud.getProjectId()).thenReturn(PROJECT);
+        when(cloud.getBatcher()).thenReturn(batcher);
+        when(cloud.getConfigurations()).thenReturn(ImmutableList.of(keptDisks, deletedDisks));
+        when(keptDisks.getNamePrefix()).thenReturn("kept");
+        when(deletedDisks.getNamePrefix()).thenReturn("deleted");
+        when(batcher.deleteSnapshotAsync(anyString(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new Operation()));
+        when(batcher.deleteDiskAsync(anyString(), anyString(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new Operation()));
+    }
+
+    @Test
+    public void deletesExpiredSnapshotsAndLeakedDisks() throws Exception {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setMaxAgeDays(0);
+        policy.setMaxCount(1);
+        when(keptDisks.getRetentionPolicy()).thenReturn(policy);
+        when(keptDisks.isBootDiskAutoDelete()).thenReturn(false);
+        when(deletedDisks.isBootDiskAutoDelete()).thenReturn(true);
+        when(cloud.listCloudSnapshots(ResourceCollectorWork.SNAPSHOT_FIELDS))
+                .thenReturn(ImmutableList.of(
+                        snapshot("kept-1", "kept", 2), snapshot("kept-2", "kept", 1), snapshot("gone-1", "gone", 9)));
+        when(cloud.listCloudDisks(ResourceCollectorWork.DISK_FIELDS))
+                .thenReturn(ImmutableList.of(
+                        disk("kept-3", "kept", 3, false),
+                        disk("deleted-1", "deleted", 2, false),
+                        disk("deleted-2", "deleted", 2, true),
+                        disk("gone-2", "gone", 9, false)));
+
+        new ResourceCollectorWork().collect(cloud, NOW);
+
+        // Only the newest snapshot and unattached disk are retained, resources of removed
+        // configurations are kept and leaked disks of configurations deleting them are removed.
+        verify(batcher).deleteSnapshotAsync(PROJECT, "kept-1");
+        verify(batcher).deleteDiskAsync(PROJECT, "z1", "deleted-1");
+        verifyNoMoreInteractions(batcher);
+    }
+
+    private static Snapshot snapshot(String name, String configuration, int ageDays) {
+        return new Snapshot()
+                .setName(name)
+                .setLabels(labels(configuration))
+                .setCreationTimestamp(timestamp(ageDays));
+    }
+
+    private static Disk disk(String name, String configuration, int ageDays, boolean attached) {
+        return new Disk()
+                .setName(name)
+                .setZone(ZONE_URL)
+                .setLabels(labels(configuration))
+                .setCreationTimestamp(timestamp(ageDays))
+                .setUsers(attached ? ImmutableList.of(ZONE_URL + "/instances/" + name) : null);
+    }
+
+    private static Map<String, String> labels(String configuration) {
+        return ImmutableMap.of(CLOUD_ID_LABEL_KEY, "cloud-id", CONFIG_LABEL_KEY, configuration);
+    }
+
+    private static String timestamp(int ageDays) {
+        return new DateTime(NOW - TimeUnit.DAYS.toMillis(ageDays)).toStringRfc3339();
+    }
+}
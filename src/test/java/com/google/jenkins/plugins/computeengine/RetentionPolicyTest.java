@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RetentionPolicyTest {
+    private static final long NOW = TimeUnit.DAYS.toMillis(100);
+
+    @Test
+    public void expiresResourcesBeyondMaxCount() {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setMaxAgeDays(0);
+        policy.setMaxCount(2);
+
+        List<Long> expired = policy.expired(ImmutableList.of(days(3), days(1), days(4), days(2)), this::millis, NOW);
+
+        assertEquals(ImmutableList.of(days(4), days(3)), expired);
+    }
+
+    @Test
+    public void expiresResourcesOlderThanMaxAge() {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setMaxAgeDays(7);
+
+        List<Long> expired = policy.expired(ImmutableList.of(days(1), days(8), days(30)), this::millis, NOW);
+
+        assertEquals(ImmutableList.of(days(30), days(8)), expired);
+    }
+
+    @Test
+    public void keepsEverythingWithoutLimits() {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setMaxAgeDays(0);
+        policy.setMaxCount(0);
+
+        assertEquals(0, policy.expired(ImmutableList.of(days(1), days(365)), this::millis, NOW).size());
+    }
+
+    /** Resources are represented by their age in days. */
+    private static Long days(long age) {
+        return age;
+    }
+
+    private long millis(Long age) {
+        return NOW - TimeUnit.DAYS.toMillis(age);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.compute.model.AttachedDisk;
+import com.google.api.services.compute.model.Instance;
+import com.google.api.services.compute.model.Operation;
+import com.google.api.services.compute.model.Snapshot;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SnapshotPipelineTest {
+    private static final String PROJECT = "test-project";
+    private static final String ZONE = "us-west1-a";
+    private static final long WAIT_MILLIS = 5000;
+
+    @Mock
+    public ComputeBatcher batcher;
+
+    @Mock
+    public TerminationQueue terminations;
+
+    @Test
+    public void instanceIsDeletedOnceSnapshotIsUploading() throws Exception {
+        Instance instance = new Instance()
+                .setDisks(ImmutableList.of(new AttachedDisk().setSource("zones/" + ZONE + "/disks/agent-1")))
+                .setLabels(ImmutableMap.of(ComputeEngineCloud.CLOUD_ID_LABEL_KEY, "cloud-id"));
+        when(batcher.getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(instance));
+        when(batcher.createSnapshotAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), any(Snapshot.class)))
+                .thenReturn(CompletableFuture.completedFuture(new Operation()));
+        when(batcher.getSnapshotAsync(eq(PROJECT), eq("agent-1"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("CREATING")))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("UPLOADING")))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("READY")));
+        SnapshotPipeline pipeline = new SnapshotPipeline(PROJECT, () -> batcher, terminations, 1, 0);
+
+        pipeline.enqueue(ZONE, "agent-1", TimeUnit.MINUTES.toMillis(10));
+        assertTrue(pipeline.isPending("agent-1"));
+
+        verify(terminations, timeout(WAIT_MILLIS)).enqueue(ZONE, "agent-1");
+        assertFalse(pipeline.isPending("agent-1"));
+        awaitCompleted(pipeline);
+        assertEquals(0, pipeline.getFailedCount());
+
+        ArgumentCaptor<Snapshot> snapshot = ArgumentCaptor.forClass(Snapshot.class);
+        verify(batcher).createSnapshotAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), snapshot.capture());
+        assertEquals("agent-1", snapshot.getValue().getName());
+        assertEquals("cloud-id", snapshot.getValue().getLabels().get(ComputeEngineCloud.CLOUD_ID_LABEL_KEY));
+    }
+
+    @Test
+    public void instanceIsDeletedWhenSnapshotTakesTooLong() throws Exception {
+        Instance instance = new Instance()
+                .setDisks(ImmutableList.of(new AttachedDisk().setSource("zones/" + ZONE + "/disks/agent-1")));
+        when(batcher.getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(instance));
+        when(batcher.createSnapshotAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), any(Snapshot.class)))
+                .thenReturn(CompletableFuture.completedFuture(new Operation()));
+        when(batcher.getSnapshotAsync(eq(PROJECT), eq("agent-1"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("CREATING")))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("READY")));
+        SnapshotPipeline pipeline = new SnapshotPipeline(PROJECT, () -> batcher, terminations, 1, 0);
+
+        pipeline.enqueue(ZONE, "agent-1", 0);
+        awaitCompleted(pipeline);
+
+        // Deleted while the snapshot was still being created.
+        InOrder inOrder = inOrder(batcher, terminations);
+        inOrder.verify(batcher).getSnapshotAsync(eq(PROJECT), eq("agent-1"), anyString());
+        inOrder.verify(terminations).enqueue(ZONE, "agent-1");
+        inOrder.verify(batcher).getSnapshotAsync(eq(PROJECT), eq("agent-1"), anyString());
+    }
+
+    @Test
+    public void concurrentSnapshotsAreLimited() {
+        when(batcher.getInstanceAsync(eq(PROJECT), eq(ZONE), anyString(), anyString()))
+                .thenReturn(new CompletableFuture<>());
+        SnapshotPipeline pipeline = new SnapshotPipeline(PROJECT, () -> batcher, terminations, 1, 0);
+
+        pipeline.enqueue(ZONE, "agent-1", TimeUnit.MINUTES.toMillis(10));
+        pipeline.enqueue(ZONE, "agent-2", TimeUnit.MINUTES.toMillis(10));
+
+        assertEquals(1, pipeline.getRunningCount());
+        assertEquals(1, pipeline.getWaitingCount());
+        assertTrue(pipeline.isPending("agent-2"));
+        verify(batcher, never()).getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-2"), anyString());
+    }
+
+    @Test
+    public void queuedInstanceIsDeletedAfterItsTimeout() {
+        when(batcher.getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), anyString()))
+                .thenReturn(new CompletableFuture<>());
+        SnapshotPipeline pipeline = new SnapshotPipeline(PROJECT, () -> batcher, terminations, 1, 0);
+
+        pipeline.enqueue(ZONE, "agent-1", TimeUnit.MINUTES.toMillis(10));
+        pipeline.enqueue(ZONE, "agent-2", 100);
+
+        verify(terminations, timeout(WAIT_MILLIS)).enqueue(ZONE, "agent-2");
+        assertFalse(pipeline.isPending("agent-2"));
+        assertEquals(0, pipeline.getWaitingCount());
+        assertEquals(1, pipeline.getFailedCount());
+        verify(batcher, never()).getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-2"), anyString());
+    }
+
+    @Test
+    public void nextInstanceStartsOnceDisksAreFree() {
+        Instance instance = new Instance()
+                .setDisks(ImmutableList.of(new AttachedDisk().setSource("zones/" + ZONE + "/disks/agent-1")));
+        when(batcher.getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(instance));
+        when(batcher.getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-2"), anyString()))
+                .thenReturn(new CompletableFuture<>());
+        when(batcher.createSnapshotAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), any(Snapshot.class)))
+                .thenReturn(CompletableFuture.completedFuture(new Operation()));
+        when(batcher.getSnapshotAsync(eq(PROJECT), eq("agent-1"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("UPLOADING")))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("READY")));
+        SnapshotPipeline pipeline = new SnapshotPipeline(PROJECT, () -> batcher, terminations, 1, 0);
+
+        pipeline.enqueue(ZONE, "agent-1", TimeUnit.MINUTES.toMillis(10));
+        pipeline.enqueue(ZONE, "agent-2", TimeUnit.MINUTES.toMillis(10));
+
+        // agent-1 is still uploading, but no longer needs its disks.
+        verify(batcher, timeout(WAIT_MILLIS)).getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-2"), anyString());
+        InOrder inOrder = inOrder(terminations, batcher);
+        inOrder.verify(terminations).enqueue(ZONE, "agent-1");
+        inOrder.verify(batcher).getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-2"), anyString());
+    }
+
+    @Test
+    public void failedSnapshotWaitsForOthersToReleaseDisks() throws Exception {
+        Instance instance = new Instance()
+                .setDisks(ImmutableList.of(
+                        new AttachedDisk().setSource("zones/" + ZONE + "/disks/disk-a"),
+                        new AttachedDisk().setSource("zones/" + ZONE + "/disks/disk-b")));
+        CompletableFuture<Operation> failedCreate = new CompletableFuture<>();
+        failedCreate.completeExceptionally(new IOException("quota exceeded"));
+        when(batcher.getInstanceAsync(eq(PROJECT), eq(ZONE), eq("agent-1"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(instance));
+        when(batcher.createSnapshotAsync(eq(PROJECT), eq(ZONE), eq("disk-a"), any(Snapshot.class)))
+                .thenReturn(failedCreate);
+        when(batcher.createSnapshotAsync(eq(PROJECT), eq(ZONE), eq("disk-b"), any(Snapshot.class)))
+                .thenReturn(CompletableFuture.completedFuture(new Operation()));
+        when(batcher.getSnapshotAsync(eq(PROJECT), eq("disk-b"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("CREATING")))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("CREATING")))
+                .thenReturn(CompletableFuture.completedFuture(new Snapshot().setStatus("UPLOADING")));
+        SnapshotPipeline pipeline = new SnapshotPipeline(PROJECT, () -> batcher, terminations, 1, 0);
+
+        pipeline.enqueue(ZONE, "agent-1", TimeUnit.MINUTES.toMillis(10));
+
+        verify(terminations, timeout(WAIT_MILLIS)).enqueue(ZONE, "agent-1");
+        InOrder inOrder = inOrder(batcher, terminations);
+        inOrder.verify(batcher, times(3)).getSnapshotAsync(eq(PROJECT), eq("disk-b"), anyString());
+        inOrder.verify(terminations).enqueue(ZONE, "agent-1");
+        verify(batcher, never()).getSnapshotAsync(eq(PROJECT), eq("disk-a"), anyString());
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (pipeline.getFailedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pipeline.getFailedCount());
+    }
+
+    private static void awaitCompleted(SnapshotPipeline pipeline) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (pipeline.getCompletedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pipeline.getCompletedCount());
+    }
+}
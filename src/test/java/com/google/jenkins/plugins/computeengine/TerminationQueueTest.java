@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.compute.model.Operation;
+import com.google.jenkins.plugins.computeengine.client.ComputeBatcher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TerminationQueueTest {
+    private static final String PROJECT = "test-project";
+    private static final String ZONE = "us-west1-a";
+
+    @Mock
+    public ComputeBatcher batcher;
+
+    private TerminationQueue queue;
+
+    @Before
+    public void setup() {
+        // Dispatched by the tests rather than in the background.
+        queue = new TerminationQueue(PROJECT, () -> batcher, TimeUnit.HOURS.toMillis(1), 0, 0);
+    }
+
+    @Test
+    public void deleteIsPendingUntilOperationIsDone() {
+        when(batcher.terminateInstanceAsync(PROJECT, ZONE, "agent-1"))
+                .thenReturn(CompletableFuture.completedFuture(new Operation().setName("op-1")));
+        when(batcher.getZoneOperationAsync(eq(PROJECT), eq(ZONE), eq("op-1"), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new Operation().setStatus("RUNNING")))
+                .thenReturn(CompletableFuture.completedFuture(new Operation().setStatus("DONE")));
+
+        queue.enqueue(ZONE, "agent-1");
+        queue.enqueue(ZONE, "agent-1");
+        assertTrue(queue.isPending("agent-1"));
+        assertEquals(1, queue.getQueuedCount());
+
+        queue.dispatch();
+        assertTrue(queue.isPending("agent-1"));
+        assertEquals(0, queue.getQueuedCount());
+        queue.dispatch();
+        assertTrue(queue.isPending("agent-1"));
+        queue.dispatch();
+        assertFalse(queue.isPending("agent-1"));
+        assertEquals(1, queue.getCompletedCount());
+        verify(batcher).terminateInstanceAsync(PROJECT, ZONE, "agent-1");
+    }
+
+    @Test
+    public void failedDeletesAreRetriedThenGivenUp() {
+        when(batcher.terminateInstanceAsync(PROJECT, ZONE, "agent-1")).thenAnswer(invocation -> failed(503));
+
+        queue.enqueue(ZONE, "agent-1");
+        for (int i = 0; i < TerminationQueue.MAX_ATTEMPTS; i++) {
+            assertTrue(queue.isPending("agent-1"));
+            queue.dispatch();
+        }
+        assertFalse(queue.isPending("agent-1"));
+        assertEquals(1, queue.getFailedCount());
+        verify(batcher, times(TerminationQueue.MAX_ATTEMPTS)).terminateInstanceAsync(PROJECT, ZONE, "agent-1");
+    }
+
+    @Test
+    public void missingInstanceIsDone() {
+        when(batcher.terminateInstanceAsync(PROJECT, ZONE, "agent-1")).thenAnswer(invocation -> failed(404));
+
+        queue.enqueue(ZONE, "agent-1");
+        queue.dispatch();
+        assertFalse(queue.isPending("agent-1"));
+        assertEquals(1, queue.getCompletedCount());
+    }
+
+    @Test
+    public void dispatchSendsLimitedNumberOfDeletes() {
+        when(batcher.terminateInstanceAsync(eq(PROJECT), eq(ZONE), anyString()))
+                .thenAnswer(invocation -> new CompletableFuture<>());
+
+        int count = TerminationQueue.MAX_DELETES_PER_DISPATCH + 10;
+        for (int i = 0; i < count; i++) {
+            queue.enqueue(ZONE, "agent-" + i);
+        }
+        queue.dispatch();
+        assertEquals(count, queue.getPendingCount());
+        assertEquals(10, queue.getQueuedCount());
+        verify(batcher, times(TerminationQueue.MAX_DELETES_PER_DISPATCH))
+                .terminateInstanceAsync(eq(PROJECT), eq(ZONE), anyString());
+    }
+
+    private static CompletableFuture<Operation> failed(int statusCode) {
+        CompletableFuture<Operation> future = new CompletableFuture<>();
+        future.completeExceptionally(new GoogleJsonResponseException(
+                new HttpResponseException.Builder(statusCode, "error", new HttpHeaders()), null));
+        return future;
+    }
+}
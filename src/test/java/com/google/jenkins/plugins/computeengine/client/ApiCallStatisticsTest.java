@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.jenkins.plugins.computeengine.client.ApiCallStatistics.MethodStatistics;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ApiCallStatisticsTest {
+    private static final String ZONE = "/compute/v1/projects/p/zones/us-west1-a";
+
+    @Test
+    public void namesApiMethods() {
+        assertEquals("instances.get", ApiCallStatistics.methodOf("GET", ZONE + "/instances/i"));
+        assertEquals("instances.delete", ApiCallStatistics.methodOf("DELETE", ZONE + "/instances/i"));
+        assertEquals("instances.insert", ApiCallStatistics.methodOf("POST", ZONE + "/instances"));
+        assertEquals("instances.list", ApiCallStatistics.methodOf("GET", ZONE + "/instances"));
+        assertEquals(
+                "instances.getGuestAttributes",
+                ApiCallStatistics.methodOf("GET", ZONE + "/instances/i/getGuestAttributes"));
+        assertEquals(
+                "instances.aggregatedList",
+                ApiCallStatistics.methodOf("GET", "/compute/v1/projects/p/aggregated/instances"));
+        assertEquals(
+                "instanceTemplates.get",
+                ApiCallStatistics.methodOf("GET", "/compute/v1/projects/p/global/instanceTemplates/t"));
+        assertEquals("regions.list", ApiCallStatistics.methodOf("GET", "/compute/v1/projects/p/regions"));
+        assertEquals(
+                "instances.get",
+                ApiCallStatistics.methodOf("GET", "projects/{project}/zones/{zone}/instances/{instance}"));
+        assertEquals("batch", ApiCallStatistics.methodOf("POST", "/batch/compute/v1"));
+    }
+
+    @Test
+    public void recordsCallsLatenciesAndErrors() {
+        String project = "statistics-test";
+        ApiCallStatistics.record(project, "instances.get", 200, TimeUnit.MILLISECONDS.toNanos(20));
+        ApiCallStatistics.record(project, "instances.get", 503, TimeUnit.MILLISECONDS.toNanos(300));
+        ApiCallStatistics.record(project, "instances.get", -1, TimeUnit.SECONDS.toNanos(20));
+
+        MethodStatistics statistics = ApiCallStatistics.getStatistics(project).get("instances.get");
+        assertEquals(3, statistics.getCalls());
+        assertEquals(Long.valueOf(1), statistics.getLatencyHistogram().get("<= 50 ms"));
+        assertEquals(Long.valueOf(1), statistics.getLatencyHistogram().get("<= 500 ms"));
+        assertEquals(Long.valueOf(1), statistics.getLatencyHistogram().get("> 10000 ms"));
+        assertEquals(Long.valueOf(1), statistics.getErrors().get("503"));
+        assertEquals(Long.valueOf(1), statistics.getErrors().get(ApiCallStatistics.IO_ERROR));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.jenkins.plugins.computeengine.client.ApiRateLimiter.Priority;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class ApiRateLimiterTest {
+
+    @Test
+    public void burstIsServedWithoutWaiting() throws Exception {
+        ApiRateLimiter limiter = new ApiRateLimiter(0.001, 3);
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire(Priority.LOOKUP);
+        }
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void mutationsAreServedBeforeQueuedLookups() throws Exception {
+        ApiRateLimiter limiter = new ApiRateLimiter(2, 1);
+        limiter.acquire(Priority.LOOKUP);
+
+        List<Priority> served = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        Thread lookup = start(limiter, Priority.LOOKUP, served, done);
+        awaitQueueDepth(limiter, 1);
+        Thread poll = start(limiter, Priority.POLL, served, done);
+        awaitQueueDepth(limiter, 2);
+        Thread mutation = start(limiter, Priority.MUTATION, served, done);
+        awaitQueueDepth(limiter, 3);
+        assertEquals(Integer.valueOf(1), limiter.getQueueDepthByPriority().get(Priority.MUTATION));
+
+        done.await();
+        assertEquals(Priority.MUTATION, served.get(0));
+        assertEquals(Priority.POLL, served.get(1));
+        assertEquals(Priority.LOOKUP, served.get(2));
+        lookup.join();
+        poll.join();
+        mutation.join();
+    }
+
+    @Test
+    public void requestsAreClassifiedByMethodAndPath() {
+        assertEquals(
+                "my-project", ComputeRequestInitializer.projectOf("/compute/v1/projects/my-project/zones/us-west1-a"));
+        assertEquals("", ComputeRequestInitializer.projectOf("/batch/compute/v1"));
+        assertEquals(
+                Priority.MUTATION,
+                ComputeRequestInitializer.priorityOf("POST", "/compute/v1/projects/p/zones/z/instances"));
+        assertEquals(
+                Priority.POLL,
+                ComputeRequestInitializer.priorityOf("GET", "/compute/v1/projects/p/zones/z/operations/op"));
+        assertEquals(
+                Priority.LOOKUP,
+                ComputeRequestInitializer.priorityOf("GET", "/compute/v1/projects/p/zones/z/machineTypes"));
+    }
+
+    @Test
+    public void provisioningReadsAreRaisedAboveLookups() throws Exception {
+        String aggregatedList = "/compute/v1/projects/p/aggregated/instances";
+        assertEquals(
+                Priority.PROVISIONING,
+                ApiRateLimiter.withPriority(
+                        Priority.PROVISIONING,
+                        () -> ApiRateLimiter.effectivePriority(
+                                ComputeRequestInitializer.priorityOf("GET", aggregatedList))));
+        assertEquals(
+                Priority.MUTATION,
+                ApiRateLimiter.withPriority(
+                        Priority.PROVISIONING,
+                        () -> ApiRateLimiter.effectivePriority(ComputeRequestInitializer.priorityOf(
+                                "POST", "/compute/v1/projects/p/zones/z/instances"))));
+        assertEquals(
+                Priority.LOOKUP,
+                ApiRateLimiter.effectivePriority(ComputeRequestInitializer.priorityOf("GET", aggregatedList)));
+    }
+
+    private static Thread start(
+            ApiRateLimiter limiter, Priority priority, List<Priority> served, CountDownLatch done) {
+        Thread t = new Thread(() -> {
+            try {
+                limiter.acquire(priority);
+                served.add(priority);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private static void awaitQueueDepth(ApiRateLimiter limiter, int depth) throws InterruptedException {
+        while (limiter.getQueueDepth() < depth) {
+            Thread.sleep(1);
+        }
+    }
+}
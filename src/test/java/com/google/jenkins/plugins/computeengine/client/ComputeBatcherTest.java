@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Instance;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ComputeBatcherTest {
+    private static final String BOUNDARY = "batch_boundary";
+
+    @Test
+    public void callsWithinWindowAreSentAsOneBatch() throws Exception {
+        MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+                .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+                .setContent(part(1, "200 OK", "{\"name\": \"inst-1\"}")
+                        + part(2, "404 Not Found", "{\"error\": {\"code\": 404, \"message\": \"not found\"}}")
+                        + "--" + BOUNDARY + "--\r\n");
+        MockHttpTransport transport = new MockHttpTransport.Builder().setLowLevelHttpResponse(response).build();
+        ComputeBatcher batcher = new ComputeBatcher(compute(transport), TimeUnit.MINUTES.toMillis(1));
+
+        CompletableFuture<Instance> found = batcher.getInstanceAsync("p", "z", "inst-1", null);
+        CompletableFuture<Instance> missing = batcher.getInstanceAsync("p", "z", "inst-2", "status");
+        batcher.flush();
+
+        assertEquals("inst-1", found.get().getName());
+        ExecutionException e = assertThrows(ExecutionException.class, missing::get);
+        assertTrue(e.getCause() instanceof GoogleJsonResponseException);
+        assertEquals(404, ((GoogleJsonResponseException) e.getCause()).getStatusCode());
+    }
+
+    @Test
+    public void batchAndItsCallsAreRecorded() throws Exception {
+        String project = "batch-statistics-test";
+        MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+                .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+                .setContent(part(1, "200 OK", "{\"name\": \"inst-1\"}")
+                        + part(2, "200 OK", "{\"name\": \"inst-2\"}")
+                        + "--" + BOUNDARY + "--\r\n");
+        MockHttpTransport transport = new MockHttpTransport.Builder().setLowLevelHttpResponse(response).build();
+        Credential credential = new Credential(BearerToken.authorizationHeaderAccessMethod()).setAccessToken("token");
+        Compute compute = new Compute.Builder(
+                        transport, JacksonFactory.getDefaultInstance(), new ComputeRequestInitializer(credential, null))
+                .setApplicationName("test")
+                .build();
+        ComputeBatcher batcher = new ComputeBatcher(compute, TimeUnit.MINUTES.toMillis(1));
+        long batches = batchCalls();
+
+        CompletableFuture<Instance> first = batcher.getInstanceAsync(project, "z", "inst-1", null);
+        CompletableFuture<Instance> second = batcher.getInstanceAsync(project, "z", "inst-2", null);
+        batcher.flush();
+
+        assertEquals("inst-1", first.get().getName());
+        assertEquals("inst-2", second.get().getName());
+        assertEquals(batches + 1, batchCalls());
+        assertEquals(2, ApiCallStatistics.getStatistics(project).get("instances.get").getCalls());
+    }
+
+    @Test
+    public void singleCallIsSentDirectly() throws Exception {
+        MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+                .setContentType("application/json; charset=UTF-8")
+                .setContent("{\"name\": \"inst-1\"}");
+        MockHttpTransport transport = new MockHttpTransport.Builder().setLowLevelHttpResponse(response).build();
+        ComputeBatcher batcher = new ComputeBatcher(compute(transport), 0);
+
+        assertEquals("inst-1", batcher.getInstance("p", "z", "inst-1").getName());
+    }
+
+    @Test
+    public void shutdownFailsCallsNotSentYet() throws Exception {
+        MockHttpTransport transport = new MockHttpTransport();
+        ComputeBatcher batcher = new ComputeBatcher(compute(transport), TimeUnit.MINUTES.toMillis(1));
+
+        CompletableFuture<Instance> queued = batcher.getInstanceAsync("p", "z", "inst-1", null);
+        batcher.shutdown();
+
+        ExecutionException e = assertThrows(ExecutionException.class, queued::get);
+        assertTrue(e.getCause() instanceof IOException);
+        assertThrows(IOException.class, () -> batcher.getInstance("p", "z", "inst-2"));
+    }
+
+    private static long batchCalls() {
+        ApiCallStatistics.MethodStatistics statistics = ApiCallStatistics.getStatistics("").get("batch");
+        return statistics == null ? 0 : statistics.getCalls();
+    }
+
+    private static Compute compute(MockHttpTransport transport) {
+        HttpRequestInitializer noAuth = request -> {};
+        return new Compute.Builder(transport, JacksonFactory.getDefaultInstance(), noAuth)
+                .setApplicationName("test")
+                .build();
+    }
+
+    private static String part(int id, String status, String json) {
+        return "--" + BOUNDARY + "\r\n"
+                + "Content-Type: application/http\r\n"
+                + "Content-ID: <response-" + id + ">\r\n\r\n"
+                + "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: application/json; charset=UTF-8\r\n"
+                + "Content-Length: " + json.length() + "\r\n\r\n"
+                + json + "\r\n";
+    }
+}
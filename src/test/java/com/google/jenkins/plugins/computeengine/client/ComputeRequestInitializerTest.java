@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ComputeRequestInitializerTest {
+    private static final String INSTANCES = "https://compute.googleapis.com/compute/v1/projects/p/zones/z/instances";
+
+    @Test
+    public void idempotentRequestIsRetriedOnServiceUnavailable() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpRequestFactory factory = requestFactory(calls, 503, 200);
+
+        assertEquals(200, factory.buildGetRequest(new GenericUrl(INSTANCES + "/i")).execute().getStatusCode());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void retriedRequestIsRecordedOnce() throws Exception {
+        String url = "https://compute.googleapis.com/compute/v1/projects/retried/zones/z/instances/i";
+        HttpRequestFactory factory = requestFactory(new AtomicInteger(), 503, 503, 200);
+
+        assertEquals(200, factory.buildGetRequest(new GenericUrl(url)).execute().getStatusCode());
+        ApiCallStatistics.MethodStatistics stats = ApiCallStatistics.getStatistics("retried").get("instances.get");
+        assertEquals(1, stats.getCalls());
+        assertTrue(stats.getErrors().isEmpty());
+    }
+
+    @Test
+    public void nonIdempotentRequestIsNotRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpRequestFactory factory = requestFactory(calls, 503, 200);
+
+        HttpRequest request = factory.buildPostRequest(new GenericUrl(INSTANCES + "/i/setLabels"), new EmptyContent());
+        assertThrows(HttpResponseException.class, request::execute);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void instanceInsertCarriesRequestIdAndIsRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpRequestFactory factory = requestFactory(calls, 429, 200);
+
+        HttpRequest request = factory.buildPostRequest(new GenericUrl(INSTANCES), new EmptyContent());
+        assertNotNull(request.getUrl().getFirst("requestId"));
+        assertEquals(200, request.execute().getStatusCode());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void batchIsRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpRequestFactory factory = requestFactory(calls, 503, 200);
+
+        HttpRequest request = factory.buildPostRequest(
+                new GenericUrl("https://www.googleapis.com/batch/compute/v1"), new EmptyContent());
+        assertNull(request.getUrl().getFirst("requestId"));
+        assertEquals(200, request.execute().getStatusCode());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void batchedMutationCarriesRequestId() throws Exception {
+        HttpRequestFactory factory = requestFactory(new AtomicInteger(), 200);
+
+        HttpRequest request = factory.buildPostRequest(
+                new GenericUrl("https://compute.googleapis.com/compute/v1/projects/p/zones/z/disks/d/createSnapshot"),
+                new EmptyContent());
+        assertNotNull(request.getUrl().getFirst("requestId"));
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpRequestFactory factory = requestFactory(calls, 404, 200);
+
+        HttpRequest request = factory.buildGetRequest(new GenericUrl(INSTANCES + "/i"));
+        assertNull(request.getUrl().getFirst("requestId"));
+        assertThrows(HttpResponseException.class, request::execute);
+        assertEquals(1, calls.get());
+    }
+
+    private static HttpRequestFactory requestFactory(AtomicInteger calls, int... statusCodes) {
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        int call = Math.min(calls.getAndIncrement(), statusCodes.length - 1);
+                        return new MockLowLevelHttpResponse()
+                                .setStatusCode(statusCodes[call])
+                                .setContentType("application/json")
+                                .setContent("{}");
+                    }
+                };
+            }
+        };
+        Credential credential = new Credential(BearerToken.authorizationHeaderAccessMethod()).setAccessToken("token");
+        return transport.createRequestFactory(new ComputeRequestInitializer(credential, null));
+    }
+}
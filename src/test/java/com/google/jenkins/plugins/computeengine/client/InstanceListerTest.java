@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.compute.Compute;
+import com.google.api.services.compute.model.Instance;
+import com.google.common.collect.ImmutableMap;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.Test;
+
+public class InstanceListerTest {
+
+    @Test
+    public void listsAllPagesWithFieldMask() throws Exception {
+        List<String> urls = new CopyOnWriteArrayList<>();
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                urls.add(url);
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        String content = urls.size() == 1
+                                ? "{\"items\": {\"zones/a\": {\"instances\": [{\"name\": \"inst-1\"}]}},"
+                                        + " \"nextPageToken\": \"next\"}"
+                                : "{\"items\": {\"zones/b\": {\"instances\": [{\"name\": \"inst-2\"}]},"
+                                        + " \"zones/c\": {}}}";
+                        return new MockLowLevelHttpResponse()
+                                .setContentType("application/json")
+                                .setContent(content);
+                    }
+                };
+            }
+        };
+        HttpRequestInitializer noAuth = request -> {};
+        InstanceLister lister = new InstanceLister(
+                new Compute.Builder(transport, JacksonFactory.getDefaultInstance(), noAuth)
+                        .setApplicationName("test")
+                        .build());
+
+        List<Instance> instances = lister.listInstancesWithLabel("p", ImmutableMap.of("cloud", "c1"), "name,status");
+
+        assertEquals(2, instances.size());
+        assertEquals("inst-1", instances.get(0).getName());
+        assertEquals("inst-2", instances.get(1).getName());
+        assertEquals(2, urls.size());
+        String first = URLDecoder.decode(urls.get(0), StandardCharsets.UTF_8.name());
+        assertTrue(first.contains("fields=nextPageToken,items/*/instances(name,status)"));
+        assertTrue(first.contains("filter=labels.cloud = \"c1\""));
+        assertTrue(URLDecoder.decode(urls.get(1), StandardCharsets.UTF_8.name()).contains("pageToken=next"));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.ssh;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.KeyPair;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the cost of the autogenerated key algorithms: generating a key pair, and signing an SSH
+ * authentication request with it.
+ */
+@JmhBenchmark
+public class SshKeyAlgorithmBenchmark {
+
+    @State(Scope.Thread)
+    public static class KeyState {
+        @Param({"ED25519", "RSA"})
+        public SshKeyAlgorithm algorithm;
+
+        KeyPair pair;
+        final byte[] data = "ssh-userauth session identifier".getBytes(StandardCharsets.US_ASCII);
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            Map<String, String> keys = SshKeysHelper.generate(algorithm);
+            pair = KeyPair.load(new JSch(), keys.get("private").getBytes(StandardCharsets.US_ASCII), null);
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> generate(KeyState state) {
+        return SshKeysHelper.generate(state.algorithm);
+    }
+
+    @Benchmark
+    public byte[] sign(KeyState state) {
+        return state.pair.getSignature(state.data);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.jenkins.plugins.computeengine.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import org.junit.Test;
+
+public class SshKeyPairPoolTest {
+
+    @Test
+    public void takeReturnsDistinctKeyPairs() {
+        SshKeyPairPool pool = new SshKeyPairPool(SshKeyAlgorithm.RSA, 0, 4);
+        Map<String, String> first = pool.take();
+        Map<String, String> second = pool.take();
+        assertTrue(first.get("public").startsWith("ssh-rsa "));
+        assertNotEquals(first.get("public"), second.get("public"));
+    }
+
+    @Test
+    public void targetDepthFollowsRecentTakes() throws Exception {
+        SshKeyPairPool pool = new SshKeyPairPool(SshKeyAlgorithm.RSA, 1, 3);
+        assertEquals(1, pool.targetDepth());
+        for (int i = 0; i < 5; i++) {
+            pool.take();
+        }
+        assertEquals(3, pool.targetDepth());
+
+        long deadline = System.currentTimeMillis() + 60000;
+        while (pool.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(3, pool.size());
+    }
+}